@@ -0,0 +1,252 @@
+package dk.easv.bll.analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * The per-move scores of analysed games, kept next to a game log.
+ *
+ * Entries are appended in the order games finish, so the file is read as a
+ * whole. When it is opened for appending, the games already in it are noted,
+ * so an interrupted analysis picks up where it stopped, and a torn last entry
+ * is cut off.
+ *
+ * File layout, little-endian: a header of magic, version, the node budget,
+ * the evaluation and a checksum of its weights, then entries of {@code long game, byte positions,
+ * positions * (byte bestMove, byte depth, int score), int crc}. Position i is
+ * the one before move i; the last one is the final position. Scores are from
+ * the side to move's point of view; a best move of {@link #NO_MOVE} means the
+ * game was over.
+ *
+ * Appending is thread-safe.
+ */
+public class AnalysisSidecar implements AutoCloseable {
+
+    public static final String FILE_NAME = "analysis.bin";
+    public static final int NO_MOVE = 0xFF;
+
+    private static final int MAGIC = 0x5A4C4E41; // "ANLZ"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int POSITION_SIZE = 6;
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    private final FileChannel channel;
+    private final long nodes;
+    private final GameAnalyzer.Evaluation evaluation;
+    private final long weights;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final BitSet done;
+
+    private AnalysisSidecar(FileChannel channel, long nodes, GameAnalyzer.Evaluation evaluation, long weights, BitSet done) {
+        this.channel = channel;
+        this.nodes = nodes;
+        this.evaluation = evaluation;
+        this.weights = weights;
+        this.done = done;
+    }
+
+    /**
+     * Opens the sidecar for appending, creating it if needed. The settings must match
+     * those of an existing file, so one file never mixes scores of different engines.
+     * @param nodes the node budget per position
+     * @param evaluation the evaluation of the search
+     * @param weights a checksum of the evaluation's weights, 0 if it has none
+     */
+    public static AnalysisSidecar open(Path path, long nodes, GameAnalyzer.Evaluation evaluation, long weights) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        BitSet done = new BitSet();
+        if (channel.size() < HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(nodes)
+                    .putInt(evaluation.ordinal()).putInt(0).putLong(weights).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.position(HEADER_SIZE);
+        } else {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            checkHeader(data, path);
+            String mismatch = null;
+            if (data.getLong(8) != nodes)
+                mismatch = data.getLong(8) + " nodes, not " + nodes;
+            else if (data.getInt(16) != evaluation.ordinal())
+                mismatch = "another evaluation than " + evaluation;
+            else if (data.getLong(24) != weights)
+                mismatch = "other weights, checksum " + Long.toHexString(data.getLong(24)) + " not " + Long.toHexString(weights);
+            if (mismatch != null) {
+                channel.close();
+                throw new IOException("Analysis in " + path + " used " + mismatch);
+            }
+            int end = scan(data, entry -> done.set((int) entry.getGame()));
+            channel.truncate(end);
+            channel.position(end);
+        }
+        return new AnalysisSidecar(channel, nodes, evaluation, weights, done);
+    }
+
+    private static void checkHeader(ByteBuffer data, Path path) throws IOException {
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+            throw new IOException("Not an analysis file: " + path);
+    }
+
+    /**
+     * Reads every entry of a sidecar.
+     */
+    public static void read(Path path, Consumer<Entry> action) throws IOException {
+        if (!Files.exists(path)) return;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+            checkHeader(data, path);
+            scan(data, action);
+        }
+    }
+
+    /**
+     * Reads the entries up to the first torn one.
+     * @return the end of the last whole entry
+     */
+    private static int scan(ByteBuffer data, Consumer<Entry> action) {
+        int offset = HEADER_SIZE;
+        while (offset + 9 <= data.limit()) {
+            int positions = data.get(offset + 8) & 0xFF;
+            int size = 9 + positions * POSITION_SIZE + 4;
+            if (offset + size > data.limit()) break;
+            if (data.getInt(offset + size - 4) != crc(data, offset, size - 4)) break;
+            byte[] moves = new byte[positions];
+            byte[] depths = new byte[positions];
+            int[] scores = new int[positions];
+            for (int i = 0; i < positions; i++) {
+                int p = offset + 9 + i * POSITION_SIZE;
+                moves[i] = data.get(p);
+                depths[i] = data.get(p + 1);
+                scores[i] = data.getInt(p + 2);
+            }
+            action.accept(new Entry(data.getLong(offset), moves, depths, scores));
+            offset += size;
+        }
+        return offset;
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(offset + length).position(offset));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the node budget per position.
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    public GameAnalyzer.Evaluation getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * @return the checksum of the evaluation's weights, 0 if it has none.
+     */
+    public long getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return true if the game was analysed before this file was opened, or since.
+     */
+    public synchronized boolean isDone(long game) {
+        return done.get((int) game);
+    }
+
+    /**
+     * Appends the analysis of a game. It is written when the buffer is full, or on {@link #flush()}.
+     * @param bestMoves the best move per position, or -1 if the game was over
+     */
+    public synchronized void append(long game, int[] bestMoves, int[] depths, int[] scores) throws IOException {
+        int size = 9 + bestMoves.length * POSITION_SIZE + 4;
+        if (buffer.remaining() < size) flush();
+        int start = buffer.position();
+        buffer.putLong(game).put((byte) bestMoves.length);
+        for (int i = 0; i < bestMoves.length; i++)
+            buffer.put((byte) (bestMoves[i] < 0 ? NO_MOVE : bestMoves[i])).put((byte) Math.min(depths[i], 0xFF)).putInt(scores[i]);
+        buffer.putInt(crc(buffer, start, buffer.position() - start));
+        done.set((int) game);
+    }
+
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        flush();
+        channel.force(false);
+        channel.close();
+    }
+
+    /**
+     * The analysis of one game.
+     */
+    public static class Entry {
+        private final long game;
+        private final byte[] bestMoves;
+        private final byte[] depths;
+        private final int[] scores;
+
+        Entry(long game, byte[] bestMoves, byte[] depths, int[] scores) {
+            this.game = game;
+            this.bestMoves = bestMoves;
+            this.depths = depths;
+            this.scores = scores;
+        }
+
+        public long getGame() {
+            return game;
+        }
+
+        /**
+         * @return the number of positions, one more than the moves in the game.
+         */
+        public int getPositions() {
+            return scores.length;
+        }
+
+        /**
+         * @return the best move in the position, encoded as in {@link dk.easv.bll.game.SearchState}, or -1 if the game was over.
+         */
+        public int getBestMove(int position) {
+            int move = bestMoves[position] & 0xFF;
+            return move == NO_MOVE ? -1 : move;
+        }
+
+        /**
+         * @return the depth searched, 0 if the move was forced or the game was over.
+         */
+        public int getDepth(int position) {
+            return depths[position] & 0xFF;
+        }
+
+        public int getScore(int position) {
+            return scores[position];
+        }
+
+        /**
+         * @return how much worse the move played in the position was than the best move, never negative.
+         */
+        public int getLoss(int position) {
+            return Math.max(0, scores[position] + scores[position + 1]);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package dk.easv.bll.analysis;
+
+import dk.easv.bll.eval.HeuristicEvaluator;
+import dk.easv.bll.eval.NTupleEvaluator;
+import dk.easv.bll.eval.NTupleNetwork;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.stats.GameRecord;
+import dk.easv.bll.search.AlphaBetaSearch;
+import dk.easv.dal.GameLogReader;
+import dk.easv.dal.GameLogWriter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Grades every move of the games in a game log with a reference search.
+ *
+ * Games are read from the log one at a time and replayed with
+ * {@link SearchState}, and each position before a move is searched by
+ * {@link AlphaBetaSearch} with the evaluation and node budget of the
+ * sidecar, so the results do not depend on the machine or its load, and a
+ * resumed run cannot mix in scores of another engine. The positions are spread over a worker
+ * pool, with a few games in flight per thread. When all positions of a game
+ * are done, its best moves and scores go to an {@link AnalysisSidecar};
+ * games already in the sidecar are skipped, so an interrupted run is simply
+ * started again.
+ *
+ * The loss of a move is how much the score dropped by playing it; the
+ * average loss and the moves losing at least {@link #BLUNDER_LOSS} are
+ * reported per bot.
+ *
+ * Usage: {@code GameAnalyzer --log=games --nodes=100000 --threads=8 --eval=ntuple
+ * --out=games/analysis.bin}.
+ */
+public class GameAnalyzer {
+
+    public enum Evaluation {
+        NTuple,
+        Heuristic
+    }
+
+    public static final int BLUNDER_LOSS = AlphaBetaSearch.EVAL_SCALE / 2;
+
+    private static final int MAX_DEPTH = 64;
+    private static final long NO_TIME_LIMIT = TimeUnit.DAYS.toMillis(1); // The node budget stops the search
+    private static final int MAX_COUNTED_LOSS = 2 * AlphaBetaSearch.EVAL_SCALE; // Keeps mate scores out of the averages
+    private static final int GAMES_PER_THREAD = 4;
+    private static final int REPORT_SECONDS = 10;
+
+    private final GameLogReader reader;
+    private final AnalysisSidecar sidecar;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private final LongAdder gamesDone = new LongAdder();
+    private final LongAdder positionsDone = new LongAdder();
+    private final LongAdder[] moves;
+    private final LongAdder[] losses;
+    private final LongAdder[] blunders;
+
+    public GameAnalyzer(GameLogReader reader, AnalysisSidecar sidecar) {
+        this.reader = reader;
+        this.sidecar = sidecar;
+        int bots = reader.getBotNames().size();
+        moves = new LongAdder[bots];
+        losses = new LongAdder[bots];
+        blunders = new LongAdder[bots];
+        for (int i = 0; i < bots; i++) {
+            moves[i] = new LongAdder();
+            losses[i] = new LongAdder();
+            blunders[i] = new LongAdder();
+        }
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Analyses every game that is not in the sidecar yet, and returns when they are written.
+     */
+    public void run() throws InterruptedException, IOException {
+        ThreadLocal<AlphaBetaSearch> engines = ThreadLocal.withInitial(() -> {
+            AlphaBetaSearch search = new AlphaBetaSearch(sidecar.getEvaluation() == Evaluation.NTuple
+                    ? new NTupleEvaluator(NTupleNetwork.getDefault()) : HeuristicEvaluator.asEvaluator());
+            search.setNodeLimit(sidecar.getNodes());
+            return search;
+        });
+        int inFlight = threads * GAMES_PER_THREAD;
+        Semaphore games = new Semaphore(inFlight);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "analysis-report");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(progress(start)), REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+
+        try {
+            for (long game = 0; game < reader.size(); game++) {
+                if (sidecar.isDone(game)) continue;
+                GameRecord record = reader.get(game);
+                SearchState[] positions = replay(record);
+                if (positions == null) {
+                    Logger.getLogger(GameAnalyzer.class.getName()).log(Level.WARNING, "Game {0} has an illegal move", game);
+                    continue;
+                }
+                games.acquire();
+                Job job = new Job(game, record, positions.length, games);
+                for (int i = 0; i < positions.length; i++) {
+                    int position = i;
+                    pool.execute(() -> analyse(job, position, positions[position], engines));
+                }
+            }
+            games.acquire(inFlight); // Wait for the last games
+        } finally {
+            pool.shutdownNow();
+            reporter.shutdownNow();
+            sidecar.flush();
+        }
+        System.out.println(progress(start));
+    }
+
+    /**
+     * @return the position before every move and the final position, or null if a move is illegal.
+     */
+    private static SearchState[] replay(GameRecord record) {
+        SearchState[] positions = new SearchState[record.getMoveCount() + 1];
+        SearchState state = new SearchState();
+        int[] legal = new int[81];
+        for (int i = 0; i < record.getMoveCount(); i++) {
+            int move = record.getMove(i);
+            int count = state.legalMoves(legal);
+            boolean found = false;
+            for (int j = 0; j < count && !found; j++) found = legal[j] == move;
+            if (!found) return null;
+            positions[i] = new SearchState(state);
+            state.make(move);
+        }
+        positions[record.getMoveCount()] = state;
+        return positions;
+    }
+
+    private void analyse(Job job, int index, SearchState position, ThreadLocal<AlphaBetaSearch> engines) {
+        try {
+            if (position.isGameOver()) {
+                int result = position.getResult();
+                job.scores[index] = result == SearchState.TIE ? 0
+                        : result == position.getSideToMove() ? AlphaBetaSearch.WIN_SCORE : -AlphaBetaSearch.WIN_SCORE;
+                job.bestMoves[index] = -1;
+            } else {
+                AlphaBetaSearch search = engines.get();
+                job.bestMoves[index] = search.search(position, NO_TIME_LIMIT, MAX_DEPTH);
+                job.depths[index] = search.getCompletedDepth();
+                job.scores[index] = search.getBestScore();
+            }
+            positionsDone.increment();
+        } catch (RuntimeException | LinkageError ex) {
+            // Also a broken weights file, so the game is never left waiting for this position
+            job.failed = true;
+            Logger.getLogger(GameAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            if (job.remaining.decrementAndGet() == 0) finish(job);
+        }
+    }
+
+    private void finish(Job job) {
+        try {
+            if (job.failed) return;
+            // A forced move is not searched, its position has the score of the next one
+            for (int i = job.scores.length - 2; i >= 0; i--) {
+                if (job.depths[i] == 0) job.scores[i] = -job.scores[i + 1];
+            }
+            for (int i = 0; i < job.scores.length - 1; i++) {
+                int bot = i % 2 == 0 ? job.record.getBot0() : job.record.getBot1();
+                int loss = Math.max(0, job.scores[i] + job.scores[i + 1]);
+                moves[bot].increment();
+                losses[bot].add(Math.min(loss, MAX_COUNTED_LOSS));
+                if (loss >= BLUNDER_LOSS) blunders[bot].increment();
+            }
+            sidecar.append(job.game, job.bestMoves, job.depths, job.scores);
+            gamesDone.increment();
+        } catch (IOException ex) {
+            Logger.getLogger(GameAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            job.inFlight.release();
+        }
+    }
+
+    private String progress(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("games %d of %d | positions %d (%.1f/s)",
+                gamesDone.sum(), reader.size(), positionsDone.sum(), positionsDone.sum() / seconds);
+    }
+
+    /**
+     * Prints the moves, average loss and blunders of every bot analysed in this run.
+     */
+    public void printSummary() {
+        System.out.printf("%-24s %10s %10s %10s %8s%n", "Bot", "Moves", "Avg loss", "Blunders", "%");
+        for (int bot = 0; bot < moves.length; bot++) {
+            long count = moves[bot].sum();
+            if (count == 0) continue;
+            System.out.printf("%-24s %10d %10.1f %10d %8.2f%n", reader.getBotName(bot), count,
+                    (double) losses[bot].sum() / count, blunders[bot].sum(), 100.0 * blunders[bot].sum() / count);
+        }
+    }
+
+    /**
+     * The positions of one game being analysed.
+     */
+    private static class Job {
+        final long game;
+        final GameRecord record;
+        final int[] bestMoves;
+        final int[] depths;
+        final int[] scores;
+        final AtomicInteger remaining;
+        final Semaphore inFlight;
+        volatile boolean failed;
+
+        Job(long game, GameRecord record, int positions, Semaphore inFlight) {
+            this.game = game;
+            this.record = record;
+            this.bestMoves = new int[positions];
+            this.depths = new int[positions];
+            this.scores = new int[positions];
+            this.remaining = new AtomicInteger(positions);
+            this.inFlight = inFlight;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path log = GameLogWriter.DEFAULT_PATH;
+        Path out = null;
+        long nodes = 100_000;
+        Integer threads = null;
+        Evaluation evaluation = Evaluation.NTuple;
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (option[0]) {
+                case "log": log = Paths.get(option[1]); break;
+                case "out": out = Paths.get(option[1]); break;
+                case "nodes": nodes = Long.parseLong(option[1]); break;
+                case "threads": threads = Integer.parseInt(option[1]); break;
+                case "eval":
+                    switch (option[1]) {
+                        case "ntuple": evaluation = Evaluation.NTuple; break;
+                        case "heuristic": evaluation = Evaluation.Heuristic; break;
+                        default: throw new IllegalArgumentException("Unknown evaluation " + option[1]);
+                    }
+                    break;
+                default: throw new IllegalArgumentException("Unknown option --" + option[0]);
+            }
+        }
+        if (out == null) out = log.resolve(AnalysisSidecar.FILE_NAME);
+
+        long weights = evaluation == Evaluation.NTuple ? NTupleNetwork.getDefault().checksum() : 0;
+        AnalysisSidecar sidecar = AnalysisSidecar.open(out, nodes, evaluation, weights);
+        // Keep what is done when the run is interrupted
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                sidecar.close();
+            } catch (IOException ex) {
+                Logger.getLogger(GameAnalyzer.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }));
+        GameAnalyzer analyzer = new GameAnalyzer(GameLogReader.open(log), sidecar);
+        if (threads != null) analyzer.setThreads(threads);
+        analyzer.run();
+        analyzer.printSummary();
+    }
+}
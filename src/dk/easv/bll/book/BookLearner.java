@@ -0,0 +1,240 @@
+package dk.easv.bll.book;
+
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.Symmetry;
+import dk.easv.bll.move.IMove;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An opening book that learns from finished games.
+ *
+ * For every position reached in the first plies of a game the win, draw and
+ * loss counts are kept, seen from the player who made the move into it. The
+ * counts live in a memory-mapped open-addressing hash table keyed by canonical
+ * hash (see {@link Symmetry}), so all symmetric positions and transpositions
+ * share one entry and the file can be reused across runs.
+ *
+ * {@link #bestMove(SearchState, int)} picks the legal move whose resulting
+ * position has the best lower confidence bound on its score, among those
+ * played often enough.
+ *
+ * File layout, little-endian: a header of magic, version and table size in
+ * bits, then entries of {@code long hash, int wins, int draws, int losses}.
+ * Hash 0 marks an empty slot. When the table is nearly full new positions are
+ * no longer added.
+ *
+ * Thread-safe.
+ */
+public class BookLearner {
+
+    public static final Path DEFAULT_PATH = Paths.get("weights", "book-learned.bin");
+    public static final int DEFAULT_PLIES = 16;
+
+    private static final int MAGIC = 0x424E524C; // "LRNB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 20;
+    private static final int DEFAULT_BITS = 20; // 1M entries, 20 MB
+    private static final int MAX_BITS = 26; // A mapped buffer holds at most 2 GB
+    private static final double MAX_LOAD = 0.9;
+    private static final double Z = 1.96; // 95% lower bound
+
+    private static BookLearner defaultLearner;
+    private static boolean defaultLoaded;
+
+    private final MappedByteBuffer buffer;
+    private final int mask;
+    private int size;
+    private int plies = DEFAULT_PLIES;
+
+    private BookLearner(MappedByteBuffer buffer, int bits) {
+        this.buffer = buffer;
+        this.mask = (1 << bits) - 1;
+        for (int slot = 0; slot <= mask; slot++)
+            if (buffer.getLong(offset(slot)) != 0) size++;
+    }
+
+    /**
+     * Opens the store, creating it with the default size if the file does not exist.
+     */
+    public static BookLearner open(Path path) throws IOException {
+        return open(path, DEFAULT_BITS);
+    }
+
+    /**
+     * @param bits the table has 2^bits entries; only used when the file is created
+     */
+    public static BookLearner open(Path path, int bits) throws IOException {
+        if (bits < 1 || bits > MAX_BITS)
+            throw new IllegalArgumentException("Table size must be 1 to " + MAX_BITS + " bits");
+        boolean exists = Files.exists(path);
+        if (!exists && path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (exists) {
+                if (channel.size() < HEADER_SIZE)
+                    throw new IOException("Not a learned book: " + path);
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                    throw new IOException("Not a learned book: " + path);
+                bits = header.getInt(8);
+                if (bits < 1 || bits > MAX_BITS)
+                    throw new IOException("Bad table size " + bits + " in " + path);
+            }
+            long length = HEADER_SIZE + ((long) ENTRY_SIZE << bits);
+            // Mapping a shorter file for writing would silently extend it with empty entries
+            if (exists && channel.size() != length)
+                throw new IOException("Unexpected size " + channel.size() + " of " + path + ", expected " + length);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (!exists)
+                buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, bits);
+            return new BookLearner(buffer, bits);
+        }
+    }
+
+    /**
+     * @return the store at {@link #DEFAULT_PATH}, opened once and shared, or null if there is none.
+     */
+    public static synchronized BookLearner getDefault() {
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            if (Files.exists(DEFAULT_PATH)) {
+                try {
+                    defaultLearner = open(DEFAULT_PATH);
+                } catch (IOException ex) {
+                    Logger.getLogger(BookLearner.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+        return defaultLearner;
+    }
+
+    /**
+     * @param plies only the first moves of each game are learned
+     */
+    public void setPlies(int plies) {
+        this.plies = plies;
+    }
+
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * Adds a finished game.
+     * @param moves the moves from the empty board
+     * @param result {@link SearchState#WIN_0}, {@link SearchState#WIN_1} or {@link SearchState#TIE}
+     */
+    public void addGame(List<IMove> moves, int result) {
+        SearchState state = new SearchState();
+        int count = Math.min(plies, moves.size());
+        long[] keys = new long[count];
+        int[] movers = new int[count];
+        for (int i = 0; i < count; i++) {
+            movers[i] = state.getSideToMove();
+            state.make(SearchState.toMove(moves.get(i)));
+            keys[i] = key(state);
+        }
+        synchronized (this) {
+            for (int i = 0; i < count; i++) {
+                int slot = findSlot(keys[i]);
+                if (slot < 0) continue;
+                int offset = offset(slot);
+                if (buffer.getLong(offset) == 0) {
+                    if (size >= MAX_LOAD * (mask + 1)) continue;
+                    buffer.putLong(offset, keys[i]);
+                    size++;
+                }
+                int field = result == SearchState.TIE ? 12 : result == movers[i] ? 8 : 16;
+                buffer.putInt(offset + field, buffer.getInt(offset + field) + 1);
+            }
+        }
+    }
+
+    /**
+     * Finds the best known move.
+     * @param state the position; it is restored before the method returns
+     * @param minGames how often a move must have been played to be considered
+     * @return the move with the best lower confidence bound on its score, or -1 if none qualifies
+     */
+    public int bestMove(SearchState state, int minGames) {
+        if (state.getMoveNumber() >= plies || state.isGameOver()) return -1;
+        int[] moves = new int[81];
+        int count = state.legalMoves(moves);
+        int best = -1;
+        double bestBound = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            state.make(moves[i]);
+            long key = key(state);
+            state.unmake();
+            int wins, draws, losses;
+            synchronized (this) {
+                int slot = findSlot(key);
+                if (slot < 0 || buffer.getLong(offset(slot)) == 0) continue;
+                int offset = offset(slot);
+                wins = buffer.getInt(offset + 8);
+                draws = buffer.getInt(offset + 12);
+                losses = buffer.getInt(offset + 16);
+            }
+            int games = wins + draws + losses;
+            if (games < Math.max(1, minGames)) continue;
+            double mean = (wins + 0.5 * draws) / games;
+            double bound = mean - Z * Math.sqrt(mean * (1 - mean) / games);
+            if (bound > bestBound) {
+                bestBound = bound;
+                best = moves[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the number of positions stored.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Writes the changes to disk.
+     */
+    public synchronized void flush() {
+        buffer.force();
+    }
+
+    /**
+     * @return the slot holding the key or the empty slot where it belongs, or -1 if the table is full.
+     */
+    private int findSlot(long key) {
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        for (int probe = 0; probe <= mask; probe++) {
+            long stored = buffer.getLong(offset(slot));
+            if (stored == 0 || stored == key) return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static long key(SearchState state) {
+        long key = Symmetry.canonicalHash(state);
+        return key == 0 ? 1 : key; // 0 marks empty slots
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * ENTRY_SIZE;
+    }
+}
@@ -0,0 +1,155 @@
+package dk.easv.bll.book;
+
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.Symmetry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only opening book, written by {@link OpeningBookBuilder}.
+ *
+ * The file is memory-mapped and searched in place with a binary search, nothing
+ * is loaded onto the heap. Positions are stored once per symmetry class under
+ * their canonical hash, with the move in the canonical frame; {@link #probe}
+ * maps it back to the position asked about.
+ *
+ * File layout, little-endian: a header of magic, version, entry count and the
+ * number of plies covered, then entries sorted by hash of
+ * {@code long hash, byte move, byte depth, short score}.
+ *
+ * Thread-safe.
+ */
+public class OpeningBook {
+
+    public static final Path DEFAULT_PATH = Paths.get("weights", "book.bin");
+
+    static final int MAGIC = 0x4B4F4F42; // "BOOK"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 12;
+
+    private static OpeningBook defaultBook;
+    private static boolean defaultLoaded;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int plies;
+
+    private OpeningBook(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        this.plies = buffer.getInt(12);
+    }
+
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.size() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+                throw new IOException("Not an opening book: " + path);
+            if (channel.size() != HEADER_SIZE + (long) buffer.getInt(8) * ENTRY_SIZE)
+                throw new IOException("Truncated opening book: " + path);
+            return new OpeningBook(buffer);
+        }
+    }
+
+    /**
+     * @return the book at {@link #DEFAULT_PATH}, opened once and shared, or null if there is none.
+     */
+    public static synchronized OpeningBook getDefault() {
+        if (!defaultLoaded) {
+            defaultLoaded = true;
+            if (Files.exists(DEFAULT_PATH)) {
+                try {
+                    defaultBook = open(DEFAULT_PATH);
+                } catch (IOException ex) {
+                    Logger.getLogger(OpeningBook.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+        return defaultBook;
+    }
+
+    /**
+     * @return the number of positions in the book.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the book covers positions with a move number below this.
+     */
+    public int getPlies() {
+        return plies;
+    }
+
+    /**
+     * Looks the position up.
+     * @return the book entry with the move mapped to the given position, or null if it is not in the book.
+     */
+    public Entry probe(SearchState state) {
+        if (state.getMoveNumber() >= plies || state.isGameOver()) return null;
+        int transform = Symmetry.canonicalTransform(state);
+        int index = find(Symmetry.hash(state, transform));
+        if (index < 0) return null;
+        int offset = HEADER_SIZE + index * ENTRY_SIZE;
+        int move = Symmetry.fromCanonical(transform, buffer.get(offset + 8));
+        return new Entry(move, buffer.get(offset + 9), buffer.getShort(offset + 10));
+    }
+
+    private int find(long hash) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long key = buffer.getLong(HEADER_SIZE + mid * ENTRY_SIZE);
+            if (key < hash) low = mid + 1;
+            else if (key > hash) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * A book move with the depth and score of the search that chose it.
+     */
+    public static class Entry {
+        private final int move;
+        private final int depth;
+        private final int score;
+
+        Entry(int move, int depth, int score) {
+            this.move = move;
+            this.depth = depth;
+            this.score = score;
+        }
+
+        /**
+         * @return the move, encoded as in {@link SearchState}.
+         */
+        public int getMove() {
+            return move;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return the search score for the side to move, on the scale of the alpha-beta search.
+         */
+        public int getScore() {
+            return score;
+        }
+    }
+}
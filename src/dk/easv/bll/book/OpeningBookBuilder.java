@@ -0,0 +1,192 @@
+package dk.easv.bll.book;
+
+import dk.easv.bll.eval.NTupleEvaluator;
+import dk.easv.bll.eval.NTupleNetwork;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.Symmetry;
+import dk.easv.bll.search.AlphaBetaSearch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds an {@link OpeningBook}.
+ *
+ * Every position in the first plies is generated, reduced to one per symmetry
+ * class, and searched with {@link AlphaBetaSearch} and the n-tuple network on a
+ * worker pool. The best moves are written as a table sorted by canonical hash.
+ *
+ * Usage: {@code OpeningBookBuilder --plies=4 --time=2000 --threads=8 --out=weights/book.bin}
+ */
+public class OpeningBookBuilder {
+
+    private static final int MAX_DEPTH = 64;
+
+    private final NTupleNetwork network;
+    private int plies = 4;
+    private long timePerPosition = 1000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public OpeningBookBuilder(NTupleNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * @param plies positions with a move number below this are put in the book
+     */
+    public void setPlies(int plies) {
+        this.plies = plies;
+    }
+
+    public void setTimePerPosition(long timePerPosition) {
+        this.timePerPosition = timePerPosition;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Builds the book and writes it to the path.
+     */
+    public void build(Path out) throws IOException, InterruptedException {
+        List<SearchState> positions = generate();
+        System.out.printf("%d positions in the first %d plies%n", positions.size(), plies);
+
+        long[] hashes = new long[positions.size()];
+        byte[] moves = new byte[positions.size()];
+        byte[] depths = new byte[positions.size()];
+        short[] scores = new short[positions.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger done = new AtomicInteger();
+        long start = System.nanoTime();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(pool.submit(() -> {
+                    AlphaBetaSearch search = new AlphaBetaSearch(new NTupleEvaluator(network));
+                    for (int p = next.getAndIncrement(); p < positions.size(); p = next.getAndIncrement()) {
+                        SearchState position = positions.get(p);
+                        int transform = Symmetry.canonicalTransform(position);
+                        int move = search.search(position, timePerPosition, MAX_DEPTH);
+                        int score = search.getBestScore();
+                        hashes[p] = Symmetry.hash(position, transform);
+                        moves[p] = (byte) Symmetry.toCanonical(transform, move);
+                        depths[p] = (byte) search.getCompletedDepth();
+                        scores[p] = (short) Math.max(-Short.MAX_VALUE, Math.min(Short.MAX_VALUE, score));
+                        int finished = done.incrementAndGet();
+                        if (finished % 100 == 0)
+                            System.out.printf("%d/%d positions, %.1f/s%n", finished, positions.size(),
+                                    finished / ((System.nanoTime() - start) / 1e9));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException ex) {
+                    throw new IOException("Book search failed", ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        write(out, hashes, moves, depths, scores);
+    }
+
+    /**
+     * @return one position per symmetry class for every move number below the ply limit.
+     */
+    private List<SearchState> generate() {
+        Map<Long, SearchState> positions = new LinkedHashMap<>();
+        List<SearchState> frontier = new ArrayList<>();
+        frontier.add(new SearchState());
+        int[] legal = new int[81];
+        for (int ply = 0; ply < plies && !frontier.isEmpty(); ply++) {
+            List<SearchState> nextFrontier = new ArrayList<>();
+            for (SearchState state : frontier) {
+                if (state.isGameOver() || positions.putIfAbsent(Symmetry.canonicalHash(state), state) != null)
+                    continue;
+                int count = state.legalMoves(legal);
+                for (int i = 0; i < count; i++) {
+                    SearchState child = new SearchState(state);
+                    child.make(legal[i]);
+                    nextFrontier.add(child);
+                }
+            }
+            frontier = nextFrontier;
+        }
+        return new ArrayList<>(positions.values());
+    }
+
+    private void write(Path out, long[] hashes, byte[] moves, byte[] depths, short[] scores) throws IOException {
+        Integer[] order = new Integer[hashes.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Long.compare(hashes[a], hashes[b]));
+
+        ByteBuffer buffer = ByteBuffer.allocate(OpeningBook.HEADER_SIZE + hashes.length * OpeningBook.ENTRY_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(OpeningBook.MAGIC).putInt(OpeningBook.VERSION).putInt(hashes.length).putInt(plies);
+        for (int i : order) {
+            buffer.putLong(hashes[i]).put(moves[i]).put(depths[i]).putShort(scores[i]);
+        }
+        buffer.flip();
+
+        if (out.getParent() != null)
+            Files.createDirectories(out.getParent());
+        Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path out = OpeningBook.DEFAULT_PATH;
+        Path weights = NTupleNetwork.DEFAULT_PATH;
+        List<String[]> options = new ArrayList<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (option[0]) {
+                case "out": out = Paths.get(option[1]); break;
+                case "weights": weights = Paths.get(option[1]); break;
+                default: options.add(option);
+            }
+        }
+        NTupleNetwork network = Files.exists(weights) ? NTupleNetwork.load(weights) : new NTupleNetwork();
+        OpeningBookBuilder builder = new OpeningBookBuilder(network);
+        for (String[] option : options) {
+            switch (option[0]) {
+                case "plies": builder.setPlies(Integer.parseInt(option[1])); break;
+                case "time": builder.setTimePerPosition(Long.parseLong(option[1])); break;
+                case "threads": builder.setThreads(Integer.parseInt(option[1])); break;
+                default: throw new IllegalArgumentException("Unknown option --" + option[0]);
+            }
+        }
+        builder.build(out);
+    }
+}
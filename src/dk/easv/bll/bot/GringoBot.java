@@ -1,21 +1,30 @@
 package dk.easv.bll.bot;
 
+import dk.easv.bll.book.BookLearner;
+import dk.easv.bll.book.OpeningBook;
+import dk.easv.bll.eval.HeuristicEvaluator;
 import dk.easv.bll.field.Field;
 import dk.easv.bll.field.IField;
+import dk.easv.bll.field.MicroboardPatterns;
+import dk.easv.bll.field.PatternIndex;
+import dk.easv.bll.game.GameManager;
 import dk.easv.bll.game.GameState;
 import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.Symmetry;
 import dk.easv.bll.move.IMove;
+import dk.easv.bll.search.TimeManager;
 import dk.easv.bll.move.Move;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
-public class GringoBot implements IBot {
+public class GringoBot implements IRulesAwareBot, ISearchInfo {
     private static final String BOTNAME = "Gringo Bot!";
     private Random rand = new Random();
     private static final int WIN_SCORE = 100000;
-    private static final int SIMULATION_DEPTH_LIMIT = 15;
+    private static final int SIMULATION_DEPTH_LIMIT = 10;
     private static final int DEFENSIVE_PRIORITY = 2000;
     private static final int MACROBOARD_CONTROL_WEIGHT = 500;
     private static final int[][] POSITION_WEIGHTS = {
@@ -31,9 +40,15 @@ public class GringoBot implements IBot {
     };
 
     private static final double EXPLORATION_CONSTANT = 1.414;
-    private static final int BASE_SIMULATION_COUNT = 750;
+    private static final int MIN_BOOK_GAMES = 20;
+    private static final int TIME_CHECK_INTERVAL = 8;
     private String botId;
     private String opponentId;
+    private List<IMove> rootMoves;
+    private final TimeManager timeManager = new TimeManager();
+    private long lastSimulations;
+    private boolean earlyTermination; // The rules of the game, used in the search tree
+    private PatternIndex patterns; // Microboard patterns of the state being simulated
 
     @Override
     public String getBotName() {
@@ -48,6 +63,13 @@ public class GringoBot implements IBot {
      */
     @Override
     public IMove doMove(IGameState state) {
+        lastSimulations = 0;
+        // Opening moves come from the book when one has been built
+        IMove bookMove = findBookMove(state);
+        if (bookMove != null) {
+            return bookMove;
+        }
+
         // If it's the first move and the macroboard is empty, play the center cell
         if (state.getMoveNumber() == 0 && isMacroboardEmpty(state.getField())) {
             return new Move(4, 4);
@@ -71,28 +93,19 @@ public class GringoBot implements IBot {
             return immediateBlock;
         }
 
-        // Prioritize center cells
-        IMove centerMove = getCenterCell(moves);
-        if (centerMove != null) {
-            return centerMove;
-        }
-
-        // Prioritize corner cells
-        IMove cornerMove = getCornerCell(state.getField().getAvailableMoves());
-        if (cornerMove != null) {
-            return cornerMove;
-        }
-
-        // Early game strategy
+        // Early game strategy: center and corner cells, the search takes over from there
         if (state.getMoveNumber() < 2) {
+            IMove centerMove = getCenterCell(moves);
+            if (centerMove != null) {
+                return centerMove;
+            }
             // If center is taken, prioritize corners
-            if (state.getField().getPlayerId(4, 4).equals(opponentId)) {
-                if (cornerMove != null) {
-                    return cornerMove;
-                }
+            IMove cornerMove = getCornerCell(moves);
+            if (cornerMove != null) {
+                return cornerMove;
             }
             // Avoid middle edges in early game
-            return avoidMiddleEdges(state.getField().getAvailableMoves());
+            return avoidMiddleEdges(moves);
         }
 
         // Then check for other tactical moves
@@ -104,6 +117,21 @@ public class GringoBot implements IBot {
         return findBestMove(state);
     }
 
+    private IMove findBookMove(IGameState state) {
+        SearchState position = new SearchState(state);
+        OpeningBook book = OpeningBook.getDefault();
+        if (book != null) {
+            OpeningBook.Entry entry = book.probe(position);
+            if (entry != null) {
+                return SearchState.toIMove(entry.getMove());
+            }
+        }
+        // Then what has worked in earlier games
+        BookLearner learned = BookLearner.getDefault();
+        int move = learned == null ? -1 : learned.bestMove(position, MIN_BOOK_GAMES);
+        return move < 0 ? null : SearchState.toIMove(move);
+    }
+
     private boolean isMacroboardEmpty(IField field) {
         String[][] macroboard = field.getMacroboard();
         for (int i = 0; i < 3; i++) {
@@ -117,10 +145,11 @@ public class GringoBot implements IBot {
     }
 
     private void determinePlayerIds(IGameState state) {
-        if (state.getMoveNumber() == 0) {
+        // From the move number, so the bot can also join a game in progress
+        if (state.getMoveNumber() % 2 == 0) {
             botId = "0";
             opponentId = "1";
-        } else if (state.getMoveNumber() == 1) {
+        } else {
             botId = "1";
             opponentId = "0";
         }
@@ -142,6 +171,9 @@ public class GringoBot implements IBot {
         return botId;
     }
 
+    /**
+     * @return the first of the listed cells that is available, or null if none is.
+     */
     private IMove getCell(List<IMove> moves, int[][] coordinates) {
         for (int[] coordinate : coordinates) {
             int x = coordinate[0];
@@ -154,7 +186,7 @@ public class GringoBot implements IBot {
             }
         }
 
-        return moves.get(rand.nextInt(moves.size()));
+        return null;
     }
 
     private IMove getCenterCell(List<IMove> moves) {
@@ -197,81 +229,9 @@ public class GringoBot implements IBot {
     }
 
     private IMove findImmediateWinOrBlock(IGameState state, String playerId) {
-        IField field = state.getField();
-        List<IMove> availableMoves = field.getAvailableMoves();
-
-        // Check each available move
-        for (IMove move : availableMoves) {
-            int microX = move.getX() / 3;
-            int microY = move.getY() / 3;
-
-            // Only check moves in active microboards
-            if (field.getMacroboard()[microY][microX].equals(IField.AVAILABLE_FIELD)) {
-                // Check if this move completes a line
-                if (completesLine(field, move, playerId)) {
-                    return move;
-                }
-            }
-        }
-
-        return null;
-    }
-
-    private boolean completesLine(IField field, IMove move, String playerId) {
-        int x = move.getX();
-        int y = move.getY();
-        int microX = x / 3;
-        int microY = y / 3;
-        int cellX = x % 3;
-        int cellY = y % 3;
-
-        // Check row
-        int rowMatches = 0;
-        for (int i = 0; i < 3; i++) {
-            int checkX = microX * 3 + i;
-            if (i != cellX && field.getPlayerId(checkX, y).equals(playerId)) rowMatches++;
-        }
-        if (rowMatches == 2) return true;
-
-        // Check column
-        int colMatches = 0;
-        for (int i = 0; i < 3; i++) {
-            int checkY = microY * 3 + i;
-            if (i != cellY && field.getPlayerId(x, checkY).equals(playerId)) colMatches++;
-        }
-        if (colMatches == 2) return true;
-
-        // Check diagonals if the move is on a diagonal
-        if ((cellX == cellY) || (cellX + cellY == 2)) {
-            return checkDiagonals(field, move, playerId, microX, microY, cellX, cellY);
-        }
-
-        return false;
-    }
-
-    private boolean checkDiagonals(IField field, IMove move, String playerId, int microX, int microY, int cellX, int cellY) {
-        int startX = microX * 3;
-        int startY = microY * 3;
-
-        // Main diagonal (top-left to bottom-right)
-        if (cellX == cellY) {
-            int matches = 0;
-            for (int i = 0; i < 3; i++) {
-                if (i != cellX && field.getPlayerId(startX + i, startY + i).equals(playerId)) matches++;
-            }
-            if (matches == 2) return true;
-        }
-
-        // Anti-diagonal (top-right to bottom-left)
-        if (cellX + cellY == 2) {
-            int matches = 0;
-            for (int i = 0; i < 3; i++) {
-                if (i != cellX && field.getPlayerId(startX + i, startY + (2 - i)).equals(playerId)) matches++;
-            }
-            if (matches == 2) return true;
-        }
-
-        return false;
+        SearchState search = new SearchState(state);
+        int move = search.getThreats().findMicroWin(Integer.parseInt(playerId), search.getPlayableMicros());
+        return move < 0 ? null : SearchState.toIMove(move);
     }
 
     private IMove findPatternMove(IGameState state) {
@@ -287,119 +247,26 @@ public class GringoBot implements IBot {
         }
 
         // First check if we can win in any microboard
-        IMove winningPattern = findTwoInLinePattern(state, getBotId(state), true);
+        IMove winningPattern = findImmediateWinOrBlock(state, getBotId(state));
         if (winningPattern != null) {
             return winningPattern;
         }
 
         // Then check if we need to block opponent
-        IMove blockingPattern = findTwoInLinePattern(state, opponentId, true);
-        if (blockingPattern != null) {
-            return blockingPattern;
-        }
-
-        // Look for strategic patterns
-        return findTwoInLinePattern(state, getBotId(state), false);
-    }
-
-    private IMove findTwoInLinePattern(IGameState state, String playerId, boolean immediate) {
-        IField field = state.getField();
-        List<IMove> availableMoves = field.getAvailableMoves();
-        if (availableMoves.isEmpty()) return null;
-
-        for (int microX = 0; microX < 3; microX++) {
-            for (int microY = 0; microY < 3; microY++) {
-                if (!immediate || field.getMacroboard()[microY][microX].equals(IField.AVAILABLE_FIELD)) {
-                    IMove move = checkMicroboardPatterns(field, microX, microY, playerId, availableMoves);
-                    if (move != null) {
-                        return move;
-                    }
-                }
-            }
-        }
-        return null;
-    }
-
-    private IMove checkMicroboardPatterns(IField field, int microX, int microY, String playerId, List<IMove> availableMoves) {
-        int startX = microX * 3;
-        int startY = microY * 3;
-
-        // Check rows
-        for (int y = 0; y < 3; y++) {
-            IMove move = checkLine(field, startX, startY + y, 1, 0, playerId, availableMoves);
-            if (move != null) return move;
-        }
-
-        // Check columns
-        for (int x = 0; x < 3; x++) {
-            IMove move = checkLine(field, startX + x, startY, 0, 1, playerId, availableMoves);
-            if (move != null) return move;
-        }
-
-        // Check diagonals
-        IMove move = checkLine(field, startX, startY, 1, 1, playerId, availableMoves);
-        if (move != null) return move;
-
-        return checkLine(field, startX + 2, startY, -1, 1, playerId, availableMoves);
-    }
-
-    private IMove checkLine(IField field, int startX, int startY, int dx, int dy, String playerId, List<IMove> availableMoves) {
-        String[] line = new String[3];
-        int[] xCoords = new int[3];
-        int[] yCoords = new int[3];
-
-        // Get the line contents and coordinates
-        for (int i = 0; i < 3; i++) {
-            int x = startX + (dx * i);
-            int y = startY + (dy * i);
-            line[i] = field.getPlayerId(x, y);
-            xCoords[i] = x;
-            yCoords[i] = y;
-        }
-
-        // Count player's pieces and empty spaces
-        int playerCount = 0;
-        int emptyCount = 0;
-        int emptyIndex = -1;
-
-        for (int i = 0; i < 3; i++) {
-            if (line[i].equals(playerId)) {
-                playerCount++;
-            } else if (line[i].equals(IField.EMPTY_FIELD)) {
-                emptyCount++;
-                emptyIndex = i;
-            }
-        }
-
-        // If we found two pieces and one empty space
-        if (playerCount == 2 && emptyCount == 1) {
-            IMove potentialMove = new Move(xCoords[emptyIndex], yCoords[emptyIndex]);
-            // Check if the move is actually available
-            for (IMove availableMove : availableMoves) {
-                if (moveEquals(availableMove, potentialMove)) {
-                    return potentialMove;
-                }
-            }
-        }
-
-        return null;
+        return findImmediateWinOrBlock(state, opponentId);
     }
 
     private IMove findTacticalMove(IGameState state) {
-        List<IMove> availableMoves = state.getField().getAvailableMoves();
-
         // First, check for winning moves
-        for (IMove move : availableMoves) {
-            if (isWinningMove(state, move, getBotId(state))) {
-                return move;
-            }
+        IMove winningMove = findImmediateWinOrBlock(state, getBotId(state));
+        if (winningMove != null) {
+            return winningMove;
         }
 
         // Then, check for blocking opponent's winning moves
-        for (IMove move : availableMoves) {
-            if (isWinningMove(state, move, opponentId)) {
-                return move;
-            }
+        IMove blockingMove = findImmediateWinOrBlock(state, opponentId);
+        if (blockingMove != null) {
+            return blockingMove;
         }
 
         // Check for fork opportunities
@@ -411,37 +278,26 @@ public class GringoBot implements IBot {
         return null;
     }
 
-    private boolean isWinningMove(IGameState state, IMove move, String playerId) {
-        GameState simulatedState = cloneGameState(state);
-        applyMove(simulatedState, move);
-        return hasWonInMicroboard(simulatedState.getField(), playerId, move.getX() / 3, move.getY() / 3);
-    }
-
     private IMove findForkMove(IGameState state) {
-        List<IMove> availableMoves = state.getField().getAvailableMoves();
-        String currentPlayer = getCurrentPlayer(state);
+        SearchState search = new SearchState(state);
+        int currentPlayer = Integer.parseInt(getCurrentPlayer(state));
+        int[] moves = new int[81];
+        int count = search.legalMoves(moves);
 
-        for (IMove move : availableMoves) {
-            GameState simulatedState = cloneGameState(state);
-            applyMove(simulatedState, move);
+        for (int i = 0; i < count; i++) {
+            search.make(moves[i]);
+            int threats = countWinningThreats(search, currentPlayer);
+            search.unmake();
 
-            if (countWinningThreats(simulatedState, currentPlayer) >= 2) {
-                return move;
+            if (threats >= 2) {
+                return SearchState.toIMove(moves[i]);
             }
         }
         return null;
     }
 
-    private int countWinningThreats(GameState state, String playerId) {
-        int threats = 0;
-        List<IMove> availableMoves = state.getField().getAvailableMoves();
-
-        for (IMove move : availableMoves) {
-            if (isWinningMove(state, move, playerId)) {
-                threats++;
-            }
-        }
-        return threats;
+    private int countWinningThreats(SearchState state, int player) {
+        return state.getThreats().countMicroThreats(player, state.getPlayableMicros());
     }
 
     private int evaluatePosition(IGameState state, String playerId) {
@@ -449,6 +305,7 @@ public class GringoBot implements IBot {
         IField field = state.getField();
         String[][] macroboard = field.getMacroboard();
         String opponentId = playerId.equals("0") ? "1" : "0";
+        PatternIndex patterns = new PatternIndex(field);
 
         // Prioritize control of center and corner microboards
         if (macroboard[1][1].equals(playerId)) score += MACROBOARD_CONTROL_WEIGHT;
@@ -464,10 +321,10 @@ public class GringoBot implements IBot {
                     score += WIN_SCORE;
                 }
                 // Add defensive scoring
-                if (needsBlocking(field, i, j, opponentId)) {
+                if (needsBlocking(patterns, i, j, opponentId)) {
                     score += DEFENSIVE_PRIORITY;
                 }
-                if (isAboutToWin(field, i, j, playerId)) {
+                if (isAboutToWin(patterns, i, j, playerId)) {
                     score += WIN_SCORE * 0.8; // Significant bonus for being close to winning a microboard
                 }
             }
@@ -485,50 +342,29 @@ public class GringoBot implements IBot {
         return score;
     }
 
-    private boolean isAboutToWin(IField field, int microX, int microY, String playerId) {
-        int startX = microX * 3;
-        int startY = microY * 3;
-
-        // Check rows
-        for (int i = 0; i < 3; i++) {
-            if (countLinePieces(field, startX, startY + i, 1, 0, playerId) == 2) return true;
-        }
-
-        // Check columns
-        for (int i = 0; i < 3; i++) {
-            if (countLinePieces(field, startX + i, startY, 0, 1, playerId) == 2) return true;
-        }
-
-        // Check diagonals
-        if (countLinePieces(field, startX, startY, 1, 1, playerId) == 2) return true;
-        if (countLinePieces(field, startX + 2, startY, -1, 1, playerId) == 2) return true;
-
-        return false;
+    private boolean isAboutToWin(PatternIndex patterns, int microX, int microY, String playerId) {
+        return patterns.threats(Integer.parseInt(playerId), microX * 3 + microY) > 0;
     }
 
-    private int countLinePieces(IField field, int startX, int startY, int dx, int dy, String playerId) {
-        int count = 0;
-        for (int i = 0; i < 3; i++) if (field.getPlayerId(startX + dx * i, startY + dy * i).equals(playerId)) count++;
-        return count;
+    private boolean needsBlocking(PatternIndex patterns, int microX, int microY, String opponentId) {
+        return patterns.threats(Integer.parseInt(opponentId), microX * 3 + microY) > 0;
     }
 
-    private boolean needsBlocking(IField field, int microX, int microY, String opponentId) {
-        int startX = microX * 3;
-        int startY = microY * 3;
-        int opponentCount = 0;
-
-        // Check all lines in microboard
-        for (int i = 0; i < 3; i++) {
-            for (int j = 0; j < 3; j++) {
-                if (field.getPlayerId((startX + j), (startY + i)).equals(opponentId)) {
-                    opponentCount++;
-                }
+    /**
+     * Playouts always settle dead microboards as draws, which only shortens them;
+     * the search tree follows the rules of the game.
+     */
+    @Override
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
 
-            }
-            if (opponentCount == 2) return true;
-            opponentCount = 0;
-        }
-        return false;
+    /**
+     * @return the simulations run for the last move, 0 if it was found without searching.
+     */
+    @Override
+    public long getLastNodeCount() {
+        return lastSimulations;
     }
 
     /**
@@ -538,26 +374,55 @@ public class GringoBot implements IBot {
         // Create root node
         Node rootNode = new Node(null, null);
         IField field = state.getField();
+        rootMoves = getDistinctMoves(state);
+        timeManager.start(state, new SearchState(state));
+        PatternIndex rootPatterns = new PatternIndex(field);
+
+        // Run simulations until the time manager stops them
+        for (int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+            // Stop early when the time is up or the best move is clear
+            if (i % TIME_CHECK_INTERVAL == 0 && i > 0 && isTimeToStop(rootNode, i)) {
+                break;
+            }
 
-        // Run simulations
-        for (int i = 0; i < getSimulationCount(state); i++) {
             // Clone the current game state for simulation
             GameState clonedState = cloneGameState(state);
+            patterns = new PatternIndex(rootPatterns);
 
             // Selection and expansion phases - find the node to expand
             Node selectedNode = selection(rootNode, clonedState);
 
             // Simulation phase - play random moves until game over
-            String result = simulation(selectedNode, clonedState);
+            double result = simulation(selectedNode, clonedState);
 
             // Backpropagation phase - update nodes with results
             backpropagation(selectedNode, result);
+            lastSimulations++;
         }
 
         // Choose the best move based on most visits
         return getBestMoveFromStats(rootNode, field.getAvailableMoves());
     }
 
+    /**
+     * The available moves without those that are the same as another move by a symmetry of the board.
+     * The first two moves are played before the search, so this only prunes symmetric positions later on.
+     */
+    private List<IMove> getDistinctMoves(IGameState state) {
+        SearchState position = new SearchState(state);
+        int[] moves = new int[81];
+        int count = Symmetry.uniqueMoves(position, moves, position.legalMoves(moves));
+        List<IMove> distinct = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            distinct.add(SearchState.toIMove(moves[i]));
+        }
+        return distinct;
+    }
+
+    private List<IMove> getCandidateMoves(Node node, GameState state) {
+        return node.parent == null ? rootMoves : state.getField().getAvailableMoves();
+    }
+
     private List<IMove> getWeightedMoves(IField field) {
         List<IMove> moves = field.getAvailableMoves();
         List<IMove> weightedMoves = new ArrayList<>();
@@ -572,19 +437,36 @@ public class GringoBot implements IBot {
         return weightedMoves;
     }
 
-    private int getSimulationCount(IGameState state) {
-        int timeLeft = state.getTimePerMove();
-        return Math.min(BASE_SIMULATION_COUNT, timeLeft / 2);
+    private boolean isTimeToStop(Node rootNode, int simulations) {
+        if (timeManager.getElapsedMs() >= timeManager.getMaximumMs()) {
+            return true;
+        }
+        if (rootNode.children.size() < rootMoves.size()) {
+            return false; // Some moves have not been tried yet
+        }
+        Node best = null;
+        int second = 0;
+        for (Node child : rootNode.children) {
+            if (best == null || child.visits > best.visits) {
+                if (best != null) {
+                    second = best.visits;
+                }
+                best = child;
+            } else if (child.visits > second) {
+                second = child.visits;
+            }
+        }
+        return timeManager.shouldStop(simulations, SearchState.toMove(best.move), best.visits, second);
     }
 
     private Node selection(Node node, GameState state) {
-        while (!isTerminal(state) && isFullyExpanded(node, state)) {
+        while (!isTerminal(state, earlyTermination) && isFullyExpanded(node, state)) {
             node = selectBestChild(node, EXPLORATION_CONSTANT);
-            applyMove(state, node.move);
+            applyMove(state, node.move, earlyTermination);
         }
 
         // If node is not fully expanded, expand it
-        if (!isTerminal(state) && !isFullyExpanded(node, state)) {
+        if (!isTerminal(state, earlyTermination) && !isFullyExpanded(node, state)) {
             return expand(node, state);
         }
 
@@ -592,7 +474,7 @@ public class GringoBot implements IBot {
     }
 
     private Node expand(Node node, GameState state) {
-        List<IMove> availableMoves = state.getField().getAvailableMoves();
+        List<IMove> availableMoves = getCandidateMoves(node, state);
         List<IMove> triedMoves = new ArrayList<>();
 
         // Get list of moves already tried from this node
@@ -616,7 +498,7 @@ public class GringoBot implements IBot {
                 node.children.add(newNode);
 
                 // Apply the move
-                applyMove(state, move);
+                applyMove(state, move, earlyTermination);
 
                 return newNode;
             }
@@ -626,10 +508,10 @@ public class GringoBot implements IBot {
         return node;
     }
 
-    private String simulation(Node node, GameState state) {
+    private double simulation(Node node, GameState state) {
         int depth = 0;
         // Simulate until terminal state or depth limit is reached
-        while (!isTerminal(state) && depth < SIMULATION_DEPTH_LIMIT) {
+        while (!isTerminal(state, true) && depth < SIMULATION_DEPTH_LIMIT) {
             List<IMove> availableMoves = state.getField().getAvailableMoves();
             if (availableMoves.isEmpty()) {
                 break;
@@ -645,7 +527,7 @@ public class GringoBot implements IBot {
                 // Later moves: mix of random and tactical
                 randomMove = availableMoves.get(rand.nextInt(availableMoves.size()));
             }
-            applyMove(state, randomMove);
+            applyMove(state, randomMove, true);
             depth++;
         }
 
@@ -653,26 +535,25 @@ public class GringoBot implements IBot {
         return evaluateState(state);
     }
 
-    private void backpropagation(Node node, String result) {
+    private void backpropagation(Node node, double result) {
         while (node != null) {
             node.visits++;
-
-            if (result.equals("win")) {
-                node.wins++;
-            } else if (result.equals("draw")) {
-                node.wins += 0.5; // Count draws as half wins
-            }
+            node.wins += result; // 1 for a win, 0.5 for a draw, the estimated win probability at a cutoff
 
             node = node.parent;
         }
     }
 
-    private boolean isTerminal(GameState state) {
-        return state.getField().getAvailableMoves().isEmpty() || hasWon(state.getField(), botId) || hasWon(state.getField(), opponentId);
+    /**
+     * @param earlyTermination true to also stop when neither player can win the macroboard
+     */
+    private boolean isTerminal(GameState state, boolean earlyTermination) {
+        return state.getField().getAvailableMoves().isEmpty() || hasWon(state.getField(), botId) || hasWon(state.getField(), opponentId)
+                || (earlyTermination && GameManager.isDrawn(state.getField().getMacroboard()));
     }
 
     private boolean isFullyExpanded(Node node, GameState state) {
-        List<IMove> availableMoves = state.getField().getAvailableMoves();
+        List<IMove> availableMoves = getCandidateMoves(node, state);
 
         // If no available moves, node is fully expanded
         if (availableMoves.isEmpty()) {
@@ -743,7 +624,10 @@ public class GringoBot implements IBot {
         return move1.getX() == move2.getX() && move1.getY() == move2.getY();
     }
 
-    private void applyMove(GameState state, IMove move) {
+    /**
+     * @param earlyTermination true to settle dead microboards as draws
+     */
+    private void applyMove(GameState state, IMove move, boolean earlyTermination) {
         if (move == null) return;
 
         IField field = state.getField();
@@ -752,19 +636,19 @@ public class GringoBot implements IBot {
         // Determine the player (alternating X and O)
         String player = getCurrentPlayer(state);
 
-        // Apply move
-        board[move.getY()][move.getX()] = player;
+        // Apply move, the board is indexed board[x][y] like the field's
+        board[move.getX()][move.getY()] = player;
+        patterns.place(move.getX(), move.getY(), Integer.parseInt(player));
 
         // Update the macroboard (active microboards)
-        updateMacroboard(field, move);
+        updateMacroboard(field, move, earlyTermination);
 
         // Increment move number
         state.setMoveNumber(state.getMoveNumber() + 1);
     }
 
-    private void updateMacroboard(IField field, IMove move) {
+    private void updateMacroboard(IField field, IMove move, boolean earlyTermination) {
         String[][] macroboard = field.getMacroboard();
-        String[][] board = field.getBoard();
 
         // Calculate which microboard coordinates the move points to
         int nextMicroboardX = move.getX() % 3;
@@ -775,9 +659,9 @@ public class GringoBot implements IBot {
         int currentMicroboardY = move.getY() / 3;
 
         // Check if the current microboard is won
-        String microboardStatus = checkMicroboardStatus(board, currentMicroboardX, currentMicroboardY);
+        String microboardStatus = checkMicroboardStatus(currentMicroboardX, currentMicroboardY, earlyTermination);
         if (!microboardStatus.equals("ongoing")) {
-            macroboard[currentMicroboardY][currentMicroboardX] = microboardStatus;
+            macroboard[currentMicroboardX][currentMicroboardY] = microboardStatus;
         }
 
         // Reset all microboards to inactive
@@ -790,8 +674,8 @@ public class GringoBot implements IBot {
         }
 
         // Set the next microboard as active, or all if the target is already won
-        if (macroboard[nextMicroboardY][nextMicroboardX].equals(IField.EMPTY_FIELD)) {
-            macroboard[nextMicroboardY][nextMicroboardX] = IField.AVAILABLE_FIELD;
+        if (macroboard[nextMicroboardX][nextMicroboardY].equals(IField.EMPTY_FIELD)) {
+            macroboard[nextMicroboardX][nextMicroboardY] = IField.AVAILABLE_FIELD;
         } else {
             // The target microboard is full or won, make all non-won boards active
             for (int y = 0; y < 3; y++) {
@@ -804,95 +688,38 @@ public class GringoBot implements IBot {
         }
     }
 
-    private String checkMicroboardStatus(String[][] board, int microX, int microY) {
-        // Get positions within this microboard
-        String[] positions = new String[9];
-        int index = 0;
-        for (int y = 0; y < 3; y++) {
-            for (int x = 0; x < 3; x++) {
-                positions[index++] = board[microY * 3 + y][microX * 3 + x];
-            }
-        }
-
-        // Check for winner
-        // Rows
-        for (int i = 0; i < 3; i++) {
-            if (!positions[i * 3].equals(IField.EMPTY_FIELD) && positions[i * 3].equals(positions[i * 3 + 1]) && positions[i * 3].equals(positions[i * 3 + 2])) {
-                return positions[i * 3];
-            }
-        }
-
-        // Columns
-        for (int i = 0;
-             i < 3; i++) {
-            if (!positions[i].equals(IField.EMPTY_FIELD) && positions[i].equals(positions[i + 3]) && positions[i].equals(positions[i + 6])) {
-                return positions[i];
-            }
-        }
-
-        // Diagonals
-        if (!positions[0].equals(IField.EMPTY_FIELD) && positions[0].equals(positions[4]) && positions[0].equals(positions[8])) {
-            return positions[0];
-        }
-
-        if (!positions[2].equals(IField.EMPTY_FIELD) && positions[2].equals(positions[4]) && positions[2].equals(positions[6])) {
-            return positions[2];
+    private String checkMicroboardStatus(int microX, int microY, boolean earlyTermination) {
+        int index = patterns.index(microX * 3 + microY);
+        // A microboard nobody can win any more is settled as a draw right away
+        if (earlyTermination && MicroboardPatterns.isDead(index)) {
+            return "draw";
         }
-
-        // Check for draw (full board)
-        boolean isFull = true;
-        for (String pos : positions) {
-            if (pos.equals(IField.EMPTY_FIELD)) {
-                isFull = false;
-                break;
-            }
+        switch (MicroboardPatterns.status(index)) {
+            case MicroboardPatterns.WON_0:
+                return "0";
+            case MicroboardPatterns.WON_1:
+                return "1";
+            case MicroboardPatterns.TIE:
+                return "draw";
+            default:
+                return "ongoing";
         }
-
-        return isFull ? "draw" : "ongoing";
     }
 
+    /**
+     * @return true if the player has won three microboards in a line.
+     */
     private boolean hasWon(IField field, String player) {
-        for (int macroRow = 0; macroRow < 3; macroRow++) {
-            for (int macroCol = 0; macroCol < 3; macroCol++) {
-                if (hasWonInMacroboard(field, player, macroRow, macroCol)) {
-                    return true;
+        String[][] macroboard = field.getMacroboard();
+        int won = 0;
+        for (int x = 0; x < 3; x++) {
+            for (int y = 0; y < 3; y++) {
+                if (macroboard[x][y].equals(player)) {
+                    won |= 1 << (x * 3 + y);
                 }
             }
         }
-        return false;
-    }
-
-    private boolean hasWonInMacroboard(IField field, String player, int macroRow, int macroCol) {
-        // Calculate the starting indices for this macroboard
-        int startRow = macroRow * 3;
-        int startCol = macroCol * 3;
-
-        // Check rows of the 3x3 subgrid
-        for (int i = 0; i < 3; i++) {
-            if (field.getPlayerId((int) (startCol), (int) (startRow + i)).equals(player) && field.getPlayerId((int) (startCol + 1), (int) (startRow + i)).equals(player) && field.getPlayerId((int) (startCol + 2), (int) (startRow + i)).equals(player)) {
-                return true;
-            }
-        }
-
-        // Check columns of the 3x3 subgrid
-        for (int i = 0; i < 3; i++) {
-            if (field.getPlayerId((int) (startCol + i), (int) (startRow)).equals(player) && field.getPlayerId((int) (startCol + i), (int) (startRow + 1)).equals(player) && field.getPlayerId((int) (startCol + i), (int) (startRow + 2)).equals(player)) {
-                return true;
-            }
-        }
-
-        // Check diagonals of the 3x3 subgrid
-        // Top-left to bottom-right diagonal
-        if (field.getPlayerId((int) (startCol), (int) (startRow)).equals(player) && field.getPlayerId((int) (startCol + 1), (int) (startRow + 1)).equals(player) && field.getPlayerId((int) (startCol + 2), (int) (startRow + 2)).equals(player)) {
-            return true;
-        }
-
-        // Top-right to bottom-left diagonal
-        if (field.getPlayerId((int) (startCol + 2), (int) (startRow)).equals(player) && field.getPlayerId((int) (startCol + 1), (int) (startRow + 1)).equals(player) && field.getPlayerId((int) (startCol), (int) (startRow + 2)).equals(player)) {
-            return true;
-        }
-
-        return false;
+        return MicroboardPatterns.hasLine(won);
     }
 
     private boolean hasWonInMicroboard(IField field, String player, int microX, int microY) {
@@ -928,15 +755,15 @@ public class GringoBot implements IBot {
         return false;
     }
 
-    private String evaluateState(GameState state) {
+    private double evaluateState(GameState state) {
         IField field = state.getField();
 
         if (hasWon(field, botId)) { // Bot wins
-            return "win";
+            return 1;
         }
 
         if (hasWon(field, opponentId)) { // Opponent wins
-            return "loss";
+            return 0;
         }
 
         boolean allResolved = true;
@@ -951,11 +778,16 @@ public class GringoBot implements IBot {
             if (!allResolved) break;
         }
 
-        if (allResolved) {
-            return "draw";
+        if (allResolved || GameManager.isDrawn(macroboard)) {
+            return 0.5;
         }
 
-        return "ongoing";
+        // Playout was cut off, estimate the outcome instead of counting it as a loss
+        if (botId == null) {
+            return 0.5;
+        }
+        int sideToMove = state.getMoveNumber() % 2;
+        return HeuristicEvaluator.winProbability(field, sideToMove, Integer.parseInt(botId));
     }
 
     private GameState cloneGameState(IGameState state) {
@@ -0,0 +1,34 @@
+package dk.easv.bll.bot;
+
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.move.IMove;
+
+/**
+ * Optional interface for bots that think on the opponent's time.
+ *
+ * When pondering is turned on in the {@link dk.easv.bll.game.GameManager}, the
+ * bot is told when its own move has been played, so it can start searching in
+ * the background, and it is told the opponent's reply before it is asked for
+ * its next move. Pondering must be stopped by the time {@link #opponentMoved}
+ * or {@link #stopPondering} returns.
+ */
+public interface IPonderingBot extends IBot {
+
+    /**
+     * Called after the bot's own move has been played. The bot may search the
+     * position on a background thread until it hears from the manager again.
+     * @param state the position with the opponent to move; the bot may keep it
+     */
+    void startPondering(IGameState state);
+
+    /**
+     * Called with the opponent's actual move, before the next {@link #doMove}.
+     * Stops pondering, so the bot can keep what it found for this move.
+     */
+    void opponentMoved(IMove move);
+
+    /**
+     * Stops pondering and drops its results, e.g. when the game is over.
+     */
+    void stopPondering();
+}
@@ -0,0 +1,16 @@
+package dk.easv.bll.bot;
+
+/**
+ * Optional interface for bots that search with their own copy of the rules.
+ *
+ * The {@link dk.easv.bll.game.GameManager} tells the bot which rules the game
+ * is played by, so its search sees the same positions as the engine.
+ */
+public interface IRulesAwareBot extends IBot {
+
+    /**
+     * @param earlyTermination true if dead microboards are tied and drawn games end
+     * early, see {@link dk.easv.bll.game.GameManager#setEarlyTermination(boolean)}
+     */
+    void setEarlyTermination(boolean earlyTermination);
+}
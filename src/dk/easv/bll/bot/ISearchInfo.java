@@ -0,0 +1,22 @@
+package dk.easv.bll.bot;
+
+/**
+ * Optional interface for search bots that can report what their last
+ * {@link IBot#doMove} call did. Tools like the self-play generator and test
+ * suite runners use it when it is there.
+ */
+public interface ISearchInfo {
+
+    /**
+     * @return the number of nodes or iterations searched in the last move.
+     */
+    long getLastNodeCount();
+
+    /**
+     * @return the visit count of every root move in the last search, indexed by x * 9 + y,
+     * or null if the bot does not count visits.
+     */
+    default int[] getLastVisits() {
+        return null;
+    }
+}
@@ -0,0 +1,70 @@
+package dk.easv.bll.bot;
+
+import dk.easv.bll.eval.NTupleEvaluator;
+import dk.easv.bll.eval.NTupleNetwork;
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.move.IMove;
+import dk.easv.bll.search.AlphaBetaSearch;
+import dk.easv.bll.search.TimeManager;
+import dk.easv.bll.search.TranspositionTable;
+
+/**
+ * Alpha-beta bot that scores its leaves with the learned n-tuple network.
+ * The weights are read from {@link NTupleNetwork#DEFAULT_PATH}, without a weight
+ * file every position looks even and the bot only plays for tactics.
+ * Search results are kept in one off-heap transposition table shared by all
+ * instances, so runners that create a bot per game do not allocate a table per
+ * game. The table holds positions, not games, so it is never cleared. Its size
+ * in megabytes is read from the system property {@value #TABLE_SIZE_PROPERTY}
+ * when the first search starts.
+ */
+public class NTupleBot implements IRulesAwareBot, ISearchInfo {
+    private static final String BOTNAME = "N-Tuple AlphaBeta";
+    private static final int MAX_DEPTH = 64;
+    private static final int TABLE_SIZE_MB = 64;
+    public static final String TABLE_SIZE_PROPERTY = "uttt.tableSizeMb";
+
+    private static TranspositionTable sharedTable;
+
+    private AlphaBetaSearch search;
+    private final TimeManager timeManager = new TimeManager();
+    private boolean earlyTermination;
+
+    @Override
+    public IMove doMove(IGameState state) {
+        if (search == null) {
+            search = new AlphaBetaSearch(new NTupleEvaluator(NTupleNetwork.getDefault()));
+            search.setTranspositionTable(sharedTable());
+            search.setTimeManager(timeManager);
+        }
+        SearchState root = new SearchState(state, earlyTermination);
+        timeManager.start(state, root);
+        int move = search.search(root, timeManager.getMaximumMs(), MAX_DEPTH);
+        return move < 0 ? null : SearchState.toIMove(move);
+    }
+
+    /**
+     * @return the table shared by all instances, allocated on first use.
+     */
+    private static synchronized TranspositionTable sharedTable() {
+        if (sharedTable == null)
+            sharedTable = new TranspositionTable(Integer.getInteger(TABLE_SIZE_PROPERTY, TABLE_SIZE_MB));
+        return sharedTable;
+    }
+
+    @Override
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
+
+    @Override
+    public long getLastNodeCount() {
+        return search == null ? 0 : search.getNodes();
+    }
+
+    @Override
+    public String getBotName() {
+        return BOTNAME;
+    }
+}
@@ -0,0 +1,129 @@
+package dk.easv.bll.bot;
+
+import dk.easv.bll.eval.NTupleEvaluator;
+import dk.easv.bll.eval.NTupleNetwork;
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.move.IMove;
+import dk.easv.bll.search.MctsSearch;
+import dk.easv.bll.search.TimeManager;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MCTS bot that values new leaves with the learned n-tuple network instead of
+ * playing random games to the end.
+ * The weights are read from {@link NTupleNetwork#DEFAULT_PATH}.
+ * When pondering is on it keeps searching during the opponent's turn, and then
+ * continues with the subtree of the move the opponent played.
+ */
+public class NTupleMctsBot implements IPonderingBot, IRulesAwareBot, ISearchInfo {
+    private static final String BOTNAME = "N-Tuple MCTS";
+    private static final long PONDER_ITERATIONS = 2_000_000; // Bounds the tree if nobody stops us
+
+    private MctsSearch search;
+    private final TimeManager timeManager = new TimeManager();
+    private int lastMove = -1;
+    private boolean earlyTermination;
+
+    private ExecutorService ponderThread;
+    private Future<?> ponderTask;
+    private AtomicBoolean ponderStop;
+    private SearchState ponderState;
+
+    @Override
+    public IMove doMove(IGameState state) {
+        finishPondering();
+        SearchState root = new SearchState(state, earlyTermination);
+        timeManager.start(state, root);
+        int move = getSearch().search(root, timeManager.getMaximumMs(), Long.MAX_VALUE);
+        lastMove = move;
+        return move < 0 ? null : SearchState.toIMove(move);
+    }
+
+    @Override
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
+
+    private MctsSearch getSearch() {
+        if (search == null) {
+            search = new MctsSearch(new NTupleEvaluator(NTupleNetwork.getDefault()));
+            search.setTimeManager(timeManager);
+        }
+        return search;
+    }
+
+    @Override
+    public void startPondering(IGameState state) {
+        finishPondering();
+        SearchState position = new SearchState(state, earlyTermination);
+        if (position.isGameOver()) return;
+        getSearch().advance(lastMove, position);
+        if (ponderThread == null) {
+            ponderThread = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "ponder-" + BOTNAME);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ponderState = position;
+        ponderStop = stop;
+        ponderTask = ponderThread.submit(() -> search.ponder(position, PONDER_ITERATIONS, stop));
+    }
+
+    @Override
+    public void opponentMoved(IMove move) {
+        if (ponderState == null) return;
+        finishPondering();
+        int reply = SearchState.toMove(move);
+        ponderState.make(reply);
+        search.advance(reply, ponderState);
+        ponderState = null;
+    }
+
+    @Override
+    public void stopPondering() {
+        finishPondering();
+        ponderState = null;
+        if (ponderThread != null) {
+            ponderThread.shutdown();
+            ponderThread = null;
+        }
+    }
+
+    private void finishPondering() {
+        if (ponderTask == null) return;
+        ponderStop.set(true);
+        try {
+            ponderTask.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            Logger.getLogger(NTupleMctsBot.class.getName()).log(Level.SEVERE, null, ex.getCause());
+        }
+        ponderTask = null;
+    }
+
+    @Override
+    public long getLastNodeCount() {
+        return search == null ? 0 : search.getIterations();
+    }
+
+    @Override
+    public int[] getLastVisits() {
+        return search == null ? null : search.getRootVisits();
+    }
+
+    @Override
+    public String getBotName() {
+        return BOTNAME;
+    }
+}
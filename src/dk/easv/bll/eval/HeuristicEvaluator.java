@@ -0,0 +1,166 @@
+package dk.easv.bll.eval;
+
+import dk.easv.bll.field.IField;
+import dk.easv.bll.field.MicroboardPatterns;
+
+/**
+ * Fast static evaluation of a position, used where a playout or search is cut off
+ * before the game is over.
+ *
+ * Every microboard pattern gets a precomputed chance of being captured by each
+ * player (won, tied/dead, or based on open two-in-a-rows and the center).
+ * Those chances are combined over the eight macroboard lines, and the side to
+ * move gets a bonus for a good sending board (a free choice, or a board it can
+ * win right away). The score is squashed into a win probability.
+ */
+public final class HeuristicEvaluator {
+
+    private static final double LINE_WEIGHT = 4.0;
+    private static final double CAPTURED_WEIGHT = 0.6;
+    private static final double FREE_MOVE_BONUS = 0.25;
+    private static final double IMMEDIATE_CAPTURE_BONUS = 0.35;
+    private static final double STEEPNESS = 1.6;
+    private static final double[] MACRO_CELL_WEIGHT = {
+            1.0, 0.75, 1.0,
+            0.75, 1.25, 0.75,
+            1.0, 0.75, 1.0
+    };
+
+    private static final float[][] CAPTURE = new float[2][MicroboardPatterns.PATTERNS];
+
+    static {
+        for (int index = 0; index < MicroboardPatterns.PATTERNS; index++) {
+            byte status = MicroboardPatterns.status(index);
+            if (status == MicroboardPatterns.WON_0) {
+                CAPTURE[0][index] = 1f;
+            } else if (status == MicroboardPatterns.WON_1) {
+                CAPTURE[1][index] = 1f;
+            } else if (status == MicroboardPatterns.OPEN && !MicroboardPatterns.isDead(index)) {
+                double c0 = openChance(0, index);
+                double c1 = openChance(1, index);
+                double sum = c0 + c1;
+                if (sum > 0.9) {
+                    c0 = c0 * 0.9 / sum;
+                    c1 = c1 * 0.9 / sum;
+                }
+                CAPTURE[0][index] = (float) c0;
+                CAPTURE[1][index] = (float) c1;
+            }
+        }
+    }
+
+    private HeuristicEvaluator() {
+    }
+
+    private static double openChance(int player, int index) {
+        int own = MicroboardPatterns.occupied(player, index);
+        int other = MicroboardPatterns.occupied(1 - player, index);
+        int openLines = 0;
+        for (int line : MicroboardPatterns.LINES) {
+            if ((line & other) == 0) openLines++;
+        }
+        if (openLines == 0) return 0;
+        double chance = 0.2 + 0.03 * openLines
+                + 0.15 * Math.min(2, MicroboardPatterns.threats(player, index));
+        if ((own & (1 << 4)) != 0) chance += 0.05;
+        return Math.min(0.8, chance);
+    }
+
+    /**
+     * @return the precomputed chance that the player ends up capturing a microboard with this pattern.
+     */
+    public static double captureChance(int player, int index) {
+        return CAPTURE[player][index];
+    }
+
+    /**
+     * Evaluates a position given as nine microboard pattern indices.
+     * @param micro the pattern index of each microboard, numbered microX * 3 + microY
+     * @param activeMicro the microboard the side to move must play in, or -1 for any
+     * @param sideToMove 0 or 1
+     * @param player the player the probability is for
+     * @return estimated probability in [0,1] that the player wins
+     */
+    public static double winProbability(int[] micro, int activeMicro, int sideToMove, int player) {
+        int won0 = 0;
+        int won1 = 0;
+        int blockedFor0 = 0;
+        int blockedFor1 = 0;
+        double score = 0;
+        for (int m = 0; m < 9; m++) {
+            double c0 = CAPTURE[0][micro[m]];
+            double c1 = CAPTURE[1][micro[m]];
+            if (c0 == 1) won0 |= 1 << m;
+            else if (c1 == 1) won1 |= 1 << m;
+            if (c0 == 0) blockedFor0 |= 1 << m;
+            if (c1 == 0) blockedFor1 |= 1 << m;
+            score += CAPTURED_WEIGHT * MACRO_CELL_WEIGHT[m] * (c0 - c1);
+        }
+
+        for (int line : MicroboardPatterns.LINES) {
+            if ((line & won0) == line) return player == 0 ? 1 : 0;
+            if ((line & won1) == line) return player == 1 ? 1 : 0;
+        }
+        if (!MicroboardPatterns.hasOpenLine(blockedFor0) && !MicroboardPatterns.hasOpenLine(blockedFor1)) {
+            return 0.5;
+        }
+
+        for (int line : MicroboardPatterns.LINES) {
+            double p0 = 1;
+            double p1 = 1;
+            for (int m = 0; m < 9; m++) {
+                if ((line & (1 << m)) != 0) {
+                    p0 *= CAPTURE[0][micro[m]];
+                    p1 *= CAPTURE[1][micro[m]];
+                }
+            }
+            score += LINE_WEIGHT * (p0 - p1);
+        }
+
+        double sending;
+        if (activeMicro < 0 || MicroboardPatterns.status(micro[activeMicro]) != MicroboardPatterns.OPEN) {
+            sending = FREE_MOVE_BONUS;
+        } else if (MicroboardPatterns.winningCells(sideToMove, micro[activeMicro]) != 0) {
+            sending = IMMEDIATE_CAPTURE_BONUS * MACRO_CELL_WEIGHT[activeMicro];
+        } else {
+            sending = 0;
+        }
+        score += sideToMove == 0 ? sending : -sending;
+
+        double p0Wins = 1.0 / (1.0 + Math.exp(-STEEPNESS * score));
+        return player == 0 ? p0Wins : 1 - p0Wins;
+    }
+
+    /**
+     * @return the evaluator as an {@link IEvaluator} for search bots.
+     */
+    public static IEvaluator asEvaluator() {
+        return state -> winProbability(state.getMicroIndices(), state.getActiveMicro(),
+                state.getSideToMove(), state.getSideToMove());
+    }
+
+    /**
+     * Evaluates the position on a field, the active microboard is read from the macroboard.
+     * @param field the field to evaluate
+     * @param sideToMove 0 or 1
+     * @param player the player the probability is for
+     * @return estimated probability in [0,1] that the player wins
+     */
+    public static double winProbability(IField field, int sideToMove, int player) {
+        String[][] board = field.getBoard();
+        String[][] macroboard = field.getMacroboard();
+        int[] micro = new int[9];
+        int activeMicro = -1;
+        int available = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int k = 0; k < 3; k++) {
+                micro[i * 3 + k] = MicroboardPatterns.indexOf(board, i, k);
+                if (macroboard[i][k].equals(IField.AVAILABLE_FIELD)) {
+                    activeMicro = i * 3 + k;
+                    available++;
+                }
+            }
+        }
+        return winProbability(micro, available == 1 ? activeMicro : -1, sideToMove, player);
+    }
+}
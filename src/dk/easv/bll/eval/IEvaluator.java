@@ -0,0 +1,36 @@
+package dk.easv.bll.eval;
+
+import dk.easv.bll.game.SearchState;
+
+/**
+ * A position evaluator that search bots can use at their leaves.
+ *
+ * Evaluators that keep incremental state get told about every make and unmake
+ * through the hooks, the default implementations do nothing. An instance with
+ * incremental state must only be used by one search thread.
+ */
+public interface IEvaluator {
+
+    /**
+     * Called when a search starts from a new root position.
+     */
+    default void reset(SearchState state) {
+    }
+
+    /**
+     * Called right after {@link SearchState#make(int)}.
+     */
+    default void moveMade(SearchState state, int move) {
+    }
+
+    /**
+     * Called right after {@link SearchState#unmake()}.
+     */
+    default void moveUnmade(SearchState state, int move) {
+    }
+
+    /**
+     * @return the estimated probability in [0,1] that the side to move wins.
+     */
+    double winProbability(SearchState state);
+}
@@ -0,0 +1,71 @@
+package dk.easv.bll.eval;
+
+import dk.easv.bll.game.SearchState;
+
+/**
+ * Incremental inference for an {@link NTupleNetwork}.
+ *
+ * The contribution of every microboard and of the macroboard is cached, and
+ * after a make or unmake only the touched microboard (and the macroboard, if a
+ * microboard was closed or reopened) is looked up again. An evaluation is then
+ * nine additions and one logistic function.
+ *
+ * Not thread-safe, use one instance per search thread.
+ */
+public class NTupleEvaluator implements IEvaluator {
+
+    private final NTupleNetwork network;
+    private final float[] microTerm = new float[9];
+    private float macroTerm;
+    private int closed = -1;
+
+    public NTupleEvaluator(NTupleNetwork network) {
+        this.network = network;
+    }
+
+    public NTupleNetwork getNetwork() {
+        return network;
+    }
+
+    @Override
+    public void reset(SearchState state) {
+        for (int m = 0; m < 9; m++)
+            microTerm[m] = network.microTerm(state, m);
+        macroTerm = network.macroTerm(state);
+        closed = state.getClosedMicros();
+    }
+
+    @Override
+    public void moveMade(SearchState state, int move) {
+        update(state, SearchState.microOf(move));
+    }
+
+    @Override
+    public void moveUnmade(SearchState state, int move) {
+        update(state, SearchState.microOf(move));
+    }
+
+    private void update(SearchState state, int m) {
+        microTerm[m] = network.microTerm(state, m);
+        if (state.getClosedMicros() != closed) {
+            macroTerm = network.macroTerm(state);
+            closed = state.getClosedMicros();
+        }
+    }
+
+    /**
+     * @return the value for player 0 before the logistic function.
+     */
+    public float value(SearchState state) {
+        float sum = macroTerm + network.tempoTerm(state);
+        for (int m = 0; m < 9; m++)
+            sum += microTerm[m];
+        return sum;
+    }
+
+    @Override
+    public double winProbability(SearchState state) {
+        double p0 = NTupleNetwork.sigmoid(value(state));
+        return state.getSideToMove() == 0 ? p0 : 1 - p0;
+    }
+}
@@ -0,0 +1,289 @@
+package dk.easv.bll.eval;
+
+import dk.easv.bll.field.MicroboardPatterns;
+import dk.easv.bll.game.SearchState;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A learned evaluator made of n-tuple pattern weights.
+ *
+ * The tuples are:
+ * <ul>
+ *     <li>every line of every open microboard (27 states, shared by all microboards),</li>
+ *     <li>every open microboard pattern paired with its macroboard cell,</li>
+ *     <li>the whole macroboard (open, won by 0, won by 1 or tied per cell),</li>
+ *     <li>the side to move together with the active microboard.</li>
+ * </ul>
+ * The sum of the active weights is the value for player 0, and the logistic
+ * function of it is the probability that player 0 wins.
+ *
+ * Features are numbered in one index space, so trainers can update weights
+ * without knowing the tables: see {@link #features(SearchState, int[])}.
+ */
+public final class NTupleNetwork {
+
+    public static final Path DEFAULT_PATH = Paths.get("weights", "ntuple.bin");
+
+    public static final int LINE_SIZE = 8 * 27;
+    public static final int MICRO_SIZE = MicroboardPatterns.PATTERNS * 9;
+    public static final int MACRO_SIZE = 1 << 18;
+    public static final int TEMPO_SIZE = 2 * 10;
+
+    public static final int LINE_OFFSET = 0;
+    public static final int MICRO_OFFSET = LINE_OFFSET + LINE_SIZE;
+    public static final int MACRO_OFFSET = MICRO_OFFSET + MICRO_SIZE;
+    public static final int TEMPO_OFFSET = MACRO_OFFSET + MACRO_SIZE;
+    public static final int FEATURE_COUNT = TEMPO_OFFSET + TEMPO_SIZE;
+
+    /**
+     * Upper bound of the number of features active in one position.
+     */
+    public static final int MAX_ACTIVE_FEATURES = 9 * 9 + 2;
+
+    private static final int MAGIC = 0x4E545550; // "NTUP"
+    private static final int VERSION = 1;
+
+    // Line state (0-26) of each of the eight lines of each pattern
+    private static final byte[] LINE_STATE = new byte[MicroboardPatterns.PATTERNS * 8];
+
+    static {
+        for (int index = 0; index < MicroboardPatterns.PATTERNS; index++) {
+            for (int l = 0; l < 8; l++) {
+                int line = MicroboardPatterns.LINES[l];
+                int state = 0;
+                for (int cell = 8; cell >= 0; cell--) {
+                    if ((line & (1 << cell)) != 0)
+                        state = state * 3 + MicroboardPatterns.digit(index, cell);
+                }
+                LINE_STATE[index * 8 + l] = (byte) state;
+            }
+        }
+    }
+
+    private static NTupleNetwork defaultNetwork;
+
+    final float[] lineWeights = new float[LINE_SIZE];
+    final float[] microWeights = new float[MICRO_SIZE];
+    final float[] macroWeights = new float[MACRO_SIZE];
+    final float[] tempoWeights = new float[TEMPO_SIZE];
+
+    /**
+     * Creates a network with all weights set to zero, which evaluates every position as even.
+     */
+    public NTupleNetwork() {
+    }
+
+    public NTupleNetwork(NTupleNetwork other) {
+        copyFrom(other);
+    }
+
+    public void copyFrom(NTupleNetwork other) {
+        System.arraycopy(other.lineWeights, 0, lineWeights, 0, LINE_SIZE);
+        System.arraycopy(other.microWeights, 0, microWeights, 0, MICRO_SIZE);
+        System.arraycopy(other.macroWeights, 0, macroWeights, 0, MACRO_SIZE);
+        System.arraycopy(other.tempoWeights, 0, tempoWeights, 0, TEMPO_SIZE);
+    }
+
+    /**
+     * @return the contribution of one microboard, zero if it is closed.
+     */
+    public float microTerm(SearchState state, int m) {
+        if (state.getMicroStatus(m) != MicroboardPatterns.OPEN)
+            return 0;
+        int index = state.getMicroIndex(m);
+        float sum = microWeights[index * 9 + m];
+        int lines = index * 8;
+        for (int l = 0; l < 8; l++)
+            sum += lineWeights[l * 27 + LINE_STATE[lines + l]];
+        return sum;
+    }
+
+    public float macroTerm(SearchState state) {
+        return macroWeights[macroIndex(state)];
+    }
+
+    public float tempoTerm(SearchState state) {
+        return tempoWeights[tempoIndex(state)];
+    }
+
+    /**
+     * Evaluates the position from scratch, see {@link NTupleEvaluator} for the incremental version.
+     * @return the value for player 0, before the logistic function
+     */
+    public float value(SearchState state) {
+        float sum = macroTerm(state) + tempoTerm(state);
+        for (int m = 0; m < 9; m++)
+            sum += microTerm(state, m);
+        return sum;
+    }
+
+    /**
+     * @return the probability that player 0 wins.
+     */
+    public double winProbability0(SearchState state) {
+        return sigmoid(value(state));
+    }
+
+    /**
+     * Writes the active features of the position.
+     * @param state the position
+     * @param features array with room for {@link #MAX_ACTIVE_FEATURES} entries
+     * @return the number of features written
+     */
+    public static int features(SearchState state, int[] features) {
+        int count = 0;
+        for (int m = 0; m < 9; m++) {
+            if (state.getMicroStatus(m) != MicroboardPatterns.OPEN)
+                continue;
+            int index = state.getMicroIndex(m);
+            features[count++] = MICRO_OFFSET + index * 9 + m;
+            for (int l = 0; l < 8; l++)
+                features[count++] = LINE_OFFSET + l * 27 + LINE_STATE[index * 8 + l];
+        }
+        features[count++] = MACRO_OFFSET + macroIndex(state);
+        features[count++] = TEMPO_OFFSET + tempoIndex(state);
+        return count;
+    }
+
+    public float getWeight(int feature) {
+        if (feature >= TEMPO_OFFSET) return tempoWeights[feature - TEMPO_OFFSET];
+        if (feature >= MACRO_OFFSET) return macroWeights[feature - MACRO_OFFSET];
+        if (feature >= MICRO_OFFSET) return microWeights[feature - MICRO_OFFSET];
+        return lineWeights[feature - LINE_OFFSET];
+    }
+
+    public void addToWeight(int feature, float delta) {
+        if (feature >= TEMPO_OFFSET) tempoWeights[feature - TEMPO_OFFSET] += delta;
+        else if (feature >= MACRO_OFFSET) macroWeights[feature - MACRO_OFFSET] += delta;
+        else if (feature >= MICRO_OFFSET) microWeights[feature - MICRO_OFFSET] += delta;
+        else lineWeights[feature - LINE_OFFSET] += delta;
+    }
+
+    /**
+     * @return the macroboard encoded with two bits per microboard: open, won by 0, won by 1, tied.
+     */
+    public static int macroIndex(SearchState state) {
+        int won0 = state.getWonMicros(0);
+        int won1 = state.getWonMicros(1);
+        int tied = state.getTiedMicros();
+        int index = 0;
+        for (int m = 0; m < 9; m++) {
+            int bit = 1 << m;
+            int value = (won0 & bit) != 0 ? 1 : (won1 & bit) != 0 ? 2 : (tied & bit) != 0 ? 3 : 0;
+            index |= value << (2 * m);
+        }
+        return index;
+    }
+
+    static int tempoIndex(SearchState state) {
+        return state.getSideToMove() * 10 + state.getActiveMicro() + 1;
+    }
+
+    public static double sigmoid(double value) {
+        return 1.0 / (1.0 + Math.exp(-value));
+    }
+
+    /**
+     * Saves the weights as little-endian floats after a small header.
+     */
+    public void save(Path path) throws IOException {
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        float[][] tables = tables();
+        ByteBuffer buffer = ByteBuffer.allocate(12 + 4 * tables.length + 4 * FEATURE_COUNT)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(tables.length);
+        for (float[] table : tables) {
+            buffer.putInt(table.length);
+            buffer.asFloatBuffer().put(table);
+            buffer.position(buffer.position() + 4 * table.length);
+        }
+        buffer.flip();
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads weights saved with {@link #save(Path)}.
+     */
+    public static NTupleNetwork load(Path path) throws IOException {
+        NTupleNetwork network = new NTupleNetwork();
+        float[][] tables = network.tables();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() != 12 + 4L * tables.length + 4L * FEATURE_COUNT)
+                throw new IOException("Unexpected size " + channel.size() + " of " + path);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException("Not an n-tuple weight file: " + path);
+            if (buffer.getInt() != tables.length)
+                throw new IOException("Unexpected number of tables in " + path);
+            for (float[] table : tables) {
+                if (buffer.getInt() != table.length)
+                    throw new IOException("Unexpected table size in " + path);
+                buffer.asFloatBuffer().get(table);
+                buffer.position(buffer.position() + 4 * table.length);
+            }
+        }
+        return network;
+    }
+
+    /**
+     * @return the network stored at {@link #DEFAULT_PATH}, loaded once and shared,
+     * or an untrained network if there is no weight file.
+     */
+    public static synchronized NTupleNetwork getDefault() {
+        if (defaultNetwork == null) {
+            defaultNetwork = new NTupleNetwork();
+            if (Files.exists(DEFAULT_PATH)) {
+                try {
+                    defaultNetwork = load(DEFAULT_PATH);
+                } catch (IOException ex) {
+                    Logger.getLogger(NTupleNetwork.class.getName()).log(Level.WARNING, null, ex);
+                }
+            }
+        }
+        return defaultNetwork;
+    }
+
+    /**
+     * @return a CRC-32 of all weights, to tell which network produced stored results.
+     */
+    public long checksum() {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(4 * 4096).order(ByteOrder.LITTLE_ENDIAN);
+        for (float[] table : tables()) {
+            for (int i = 0; i < table.length; ) {
+                int n = Math.min(4096, table.length - i);
+                buffer.clear();
+                buffer.asFloatBuffer().put(table, i, n);
+                buffer.limit(4 * n);
+                crc.update(buffer);
+                i += n;
+            }
+        }
+        return crc.getValue();
+    }
+
+    private float[][] tables() {
+        return new float[][]{lineWeights, microWeights, macroWeights, tempoWeights};
+    }
+}
@@ -0,0 +1,213 @@
+package dk.easv.bll.field;
+
+/**
+ * Precomputed lookup tables for every possible 3x3 microboard.
+ *
+ * A microboard is encoded as a base-3 index where each cell is a digit:
+ * 0 = empty, 1 = player 0, 2 = player 1. Cells are numbered
+ * {@code localX * 3 + localY}, which matches the {@code board[x][y]} layout
+ * used by {@link IField}, and also matches the macroboard cell a move in
+ * that cell sends the opponent to.
+ *
+ * Since there are only 3^9 = 19683 configurations, status, threats, winning
+ * cells and the "dead" flag are all computed once and looked up in O(1).
+ */
+public final class MicroboardPatterns {
+
+    public static final int PATTERNS = 19683;
+
+    public static final byte OPEN = 0;
+    public static final byte WON_0 = 1;
+    public static final byte WON_1 = 2;
+    public static final byte TIE = 3;
+
+    /**
+     * The eight winning lines as cell bitmasks.
+     */
+    public static final int[] LINES = {
+            0b000000111, 0b000111000, 0b111000000, // localX = 0, 1, 2
+            0b001001001, 0b010010010, 0b100100100, // localY = 0, 1, 2
+            0b100010001, 0b001010100               // diagonals
+    };
+
+    private static final int[] POW3 = {1, 3, 9, 27, 81, 243, 729, 2187, 6561};
+
+    private static final byte[] STATUS = new byte[PATTERNS];
+    private static final byte[][] THREATS = new byte[2][PATTERNS];
+    private static final short[][] WINNING_CELLS = new short[2][PATTERNS];
+    private static final short[][] OCCUPIED = new short[2][PATTERNS];
+    private static final boolean[] DEAD = new boolean[PATTERNS];
+
+    static {
+        for (int index = 0; index < PATTERNS; index++) {
+            int mask0 = 0;
+            int mask1 = 0;
+            int rest = index;
+            for (int cell = 0; cell < 9; cell++) {
+                int digit = rest % 3;
+                rest /= 3;
+                if (digit == 1) mask0 |= 1 << cell;
+                else if (digit == 2) mask1 |= 1 << cell;
+            }
+            OCCUPIED[0][index] = (short) mask0;
+            OCCUPIED[1][index] = (short) mask1;
+
+            int empty = ~(mask0 | mask1) & 0x1FF;
+            boolean won0 = false;
+            boolean won1 = false;
+            boolean open0 = false;
+            boolean open1 = false;
+            for (int line : LINES) {
+                won0 |= (mask0 & line) == line;
+                won1 |= (mask1 & line) == line;
+                open0 |= (mask1 & line) == 0;
+                open1 |= (mask0 & line) == 0;
+                if (Integer.bitCount(mask0 & line) == 2 && (empty & line) != 0) {
+                    THREATS[0][index]++;
+                    WINNING_CELLS[0][index] |= (short) (empty & line);
+                }
+                if (Integer.bitCount(mask1 & line) == 2 && (empty & line) != 0) {
+                    THREATS[1][index]++;
+                    WINNING_CELLS[1][index] |= (short) (empty & line);
+                }
+            }
+
+            if (won0) STATUS[index] = WON_0;
+            else if (won1) STATUS[index] = WON_1;
+            else if (empty == 0) STATUS[index] = TIE;
+            else STATUS[index] = OPEN;
+
+            DEAD[index] = !won0 && !won1 && !open0 && !open1;
+        }
+    }
+
+    private MicroboardPatterns() {
+    }
+
+    /**
+     * @return OPEN, WON_0, WON_1 or TIE for the given pattern.
+     */
+    public static byte status(int index) {
+        return STATUS[index];
+    }
+
+    /**
+     * @return the number of lines where the player has two marks and the third cell is empty.
+     */
+    public static int threats(int player, int index) {
+        return THREATS[player][index];
+    }
+
+    /**
+     * @return bitmask of empty cells that would complete a line for the player.
+     */
+    public static int winningCells(int player, int index) {
+        return WINNING_CELLS[player][index];
+    }
+
+    /**
+     * @return bitmask of the cells occupied by the player.
+     */
+    public static int occupied(int player, int index) {
+        return OCCUPIED[player][index];
+    }
+
+    /**
+     * @return bitmask of the empty cells.
+     */
+    public static int emptyCells(int index) {
+        return ~(OCCUPIED[0][index] | OCCUPIED[1][index]) & 0x1FF;
+    }
+
+    /**
+     * A pattern is dead when it is not won and every line holds marks of both players,
+     * so nobody can win it any more.
+     */
+    public static boolean isDead(int index) {
+        return DEAD[index];
+    }
+
+    /**
+     * @return true if the cells in the bitmask contain a complete line.
+     */
+    public static boolean hasLine(int cells) {
+        for (int line : LINES) {
+            if ((cells & line) == line)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether any of the eight lines avoids all the blocked cells.
+     * Used for the macroboard, where a cell is blocked for a player when the
+     * opponent owns it or it is tied.
+     * @param blocked bitmask of cells the player can no longer get
+     * @return true if the player can still complete a line
+     */
+    public static boolean hasOpenLine(int blocked) {
+        for (int line : LINES) {
+            if ((line & blocked) == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the cells that complete a line, for boards that are not plain patterns,
+     * such as the macroboard where tied cells block both players.
+     * @param own bitmask of cells the player has
+     * @param blocked bitmask of cells the player can no longer get
+     * @return bitmask of the cells that would complete a line for the player
+     */
+    public static int lineCompletions(int own, int blocked) {
+        int cells = 0;
+        for (int line : LINES) {
+            if ((line & blocked) == 0 && Integer.bitCount(line & own) == 2)
+                cells |= line & ~own;
+        }
+        return cells;
+    }
+
+    /**
+     * @return 0 for empty, 1 for player 0 and 2 for player 1.
+     */
+    public static int digit(int index, int cell) {
+        return index / POW3[cell] % 3;
+    }
+
+    /**
+     * @return the pattern index after the player has put a mark in the (empty) cell.
+     */
+    public static int play(int index, int cell, int player) {
+        return index + (player + 1) * POW3[cell];
+    }
+
+    /**
+     * @return the pattern index after the player's mark has been taken back from the cell.
+     */
+    public static int undo(int index, int cell, int player) {
+        return index - (player + 1) * POW3[cell];
+    }
+
+    /**
+     * Reads the pattern index of one microboard from a 9x9 board.
+     * @param board the board, indexed board[x][y]
+     * @param microX the microboard column (0-2)
+     * @param microY the microboard row (0-2)
+     */
+    public static int indexOf(String[][] board, int microX, int microY) {
+        int index = 0;
+        for (int cell = 8; cell >= 0; cell--) {
+            String value = board[microX * 3 + cell / 3][microY * 3 + cell % 3];
+            index = index * 3 + digitOf(value);
+        }
+        return index;
+    }
+
+    private static int digitOf(String value) {
+        if (value.equals("0")) return 1;
+        if (value.equals("1")) return 2;
+        return 0;
+    }
+}
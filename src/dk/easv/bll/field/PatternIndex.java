@@ -0,0 +1,85 @@
+package dk.easv.bll.field;
+
+/**
+ * Keeps the base-3 pattern index of all nine microboards up to date,
+ * so status, threats and winning cells can be looked up in
+ * {@link MicroboardPatterns} without rescanning the board.
+ *
+ * Microboards are numbered {@code microX * 3 + microY}, cells inside a
+ * microboard {@code localX * 3 + localY}.
+ */
+public class PatternIndex {
+
+    private final int[] micro = new int[9];
+
+    public PatternIndex() {
+    }
+
+    /**
+     * Builds the index from the current board of the field.
+     */
+    public PatternIndex(IField field) {
+        this(field.getBoard());
+    }
+
+    public PatternIndex(String[][] board) {
+        for (int microX = 0; microX < 3; microX++)
+            for (int microY = 0; microY < 3; microY++)
+                micro[microX * 3 + microY] = MicroboardPatterns.indexOf(board, microX, microY);
+    }
+
+    public PatternIndex(PatternIndex other) {
+        System.arraycopy(other.micro, 0, micro, 0, 9);
+    }
+
+    /**
+     * Updates the index after the player has put a mark on (x,y).
+     */
+    public void place(int x, int y, int player) {
+        int m = microOf(x, y);
+        micro[m] = MicroboardPatterns.play(micro[m], cellOf(x, y), player);
+    }
+
+    /**
+     * Updates the index after the player's mark on (x,y) has been taken back.
+     */
+    public void remove(int x, int y, int player) {
+        int m = microOf(x, y);
+        micro[m] = MicroboardPatterns.undo(micro[m], cellOf(x, y), player);
+    }
+
+    public int index(int micro) {
+        return this.micro[micro];
+    }
+
+    public byte status(int micro) {
+        return MicroboardPatterns.status(this.micro[micro]);
+    }
+
+    public int threats(int player, int micro) {
+        return MicroboardPatterns.threats(player, this.micro[micro]);
+    }
+
+    public int winningCells(int player, int micro) {
+        return MicroboardPatterns.winningCells(player, this.micro[micro]);
+    }
+
+    public boolean isDead(int micro) {
+        return MicroboardPatterns.isDead(this.micro[micro]);
+    }
+
+    /**
+     * @return the live array of the nine pattern indices, do not modify.
+     */
+    public int[] indices() {
+        return micro;
+    }
+
+    public static int microOf(int x, int y) {
+        return (x / 3) * 3 + y / 3;
+    }
+
+    public static int cellOf(int x, int y) {
+        return (x % 3) * 3 + y % 3;
+    }
+}
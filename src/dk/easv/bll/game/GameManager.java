@@ -1,10 +1,18 @@
 package dk.easv.bll.game;
 
 import dk.easv.bll.bot.IBot;
+import dk.easv.bll.bot.IPonderingBot;
+import dk.easv.bll.bot.IRulesAwareBot;
 import dk.easv.bll.field.IField;
+import dk.easv.bll.field.MicroboardPatterns;
 import dk.easv.bll.move.IMove;
 import dk.easv.bll.move.Move;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 /**
  * This is a proposed GameManager for Ultimate Tic-Tac-Toe,
  * the implementation of which is up to whoever uses this interface.
@@ -31,6 +39,17 @@ public class GameManager {
         Win,
         Tie
     }
+
+    /**
+     * What happens when a bot misses its deadline.
+     */
+    public enum TimeoutPolicy{
+        Forfeit,
+        RandomMove
+    }
+
+    public static final long DEFAULT_GRACE_PERIOD = 200;
+    private static final int CLOCK_MOVES_TO_GO = 20; // For bots that only read the time per move
     
     private final IGameState currentState;
     private int currentPlayer = 0; //player0 == 0 && player1 == 1
@@ -38,6 +57,16 @@ public class GameManager {
     private IBot bot = null;
     private IBot bot2 = null;
     private volatile GameOverState gameOver = GameOverState.Active;
+    private boolean earlyTermination = false;
+    private final List<IMove> moveHistory = new ArrayList<>();
+    private boolean pondering = false;
+    private MoveTimer moveTimer = null;
+    private long gracePeriod = DEFAULT_GRACE_PERIOD;
+    private TimeoutPolicy timeoutPolicy = TimeoutPolicy.RandomMove;
+    private final int[] timeouts = new int[2];
+    private int winner = -1;
+    private final Random random = new Random();
+    private long turnStart = System.nanoTime();
 
     public void setGameOver(GameOverState state) {
         gameOver = state;
@@ -53,6 +82,124 @@ public class GameManager {
         return currentPlayer;
     }
 
+    /**
+     * When enabled, a microboard where no line can be completed by anyone is
+     * declared tied right away, and the game ends as a tie as soon as neither
+     * player can complete a line on the macroboard. Disabled by default, so the
+     * normal rules only declare ties on full boards.
+     * Bots that implement {@link IRulesAwareBot} are told, so they search by the same rules.
+     * @param earlyTermination true to enable dead-board detection
+     */
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+        for (int player = 0; player < 2; player++) {
+            IBot playerBot = getBot(player);
+            if (playerBot instanceof IRulesAwareBot)
+                ((IRulesAwareBot) playerBot).setEarlyTermination(earlyTermination);
+        }
+    }
+    public boolean isEarlyTermination() {
+        return earlyTermination;
+    }
+
+    /**
+     * Plays with a chess clock: each player starts with the time bank and gets the
+     * increment added after every move (Fischer). The time a player takes is taken
+     * from their bank, and a player whose bank runs out by more than the grace
+     * period loses on time. The clock starts now.
+     * Bots see their bank in {@link IGameState#getTimeBank(int)}; bots that only read
+     * {@link IGameState#getTimePerMove()} get a share of their bank there.
+     */
+    public void setClock(long timeBank, int increment) {
+        currentState.setTimeBank(0, timeBank);
+        currentState.setTimeBank(1, timeBank);
+        currentState.setIncrement(increment);
+        turnStart = System.nanoTime();
+    }
+
+    public boolean hasClock() {
+        return currentState.getTimeBank(0) != IGameState.NO_CLOCK;
+    }
+
+    /**
+     * Runs bot moves through the timer, which abandons a move that takes longer than
+     * the time per move plus the grace period. Without a timer (the default) bots are
+     * called directly and may take as long as they like.
+     * @param moveTimer the timer to use, or null
+     */
+    public void setMoveTimer(MoveTimer moveTimer) {
+        this.moveTimer = moveTimer;
+    }
+    public MoveTimer getMoveTimer() {
+        return moveTimer;
+    }
+
+    public void setGracePeriod(long gracePeriod) {
+        this.gracePeriod = gracePeriod;
+    }
+    public long getGracePeriod() {
+        return gracePeriod;
+    }
+
+    /**
+     * Sets what happens when a bot misses its deadline: it loses the game, or a
+     * random legal move is played for it (the default). With a clock a missed
+     * deadline always loses on time. A bot that keeps running after its deadline
+     * is not asked to move or ponder again until the abandoned move has returned.
+     */
+    public void setTimeoutPolicy(TimeoutPolicy timeoutPolicy) {
+        this.timeoutPolicy = timeoutPolicy;
+    }
+    public TimeoutPolicy getTimeoutPolicy() {
+        return timeoutPolicy;
+    }
+
+    /**
+     * @return how many deadlines the player has missed in this game.
+     */
+    public int getTimeouts(int player) {
+        return timeouts[player];
+    }
+
+    /**
+     * @return the player who won, also by forfeit, or -1 while the game is going on or tied.
+     */
+    public int getWinner() {
+        return gameOver == GameOverState.Win ? winner : -1;
+    }
+
+    /**
+     * When enabled, bots that implement {@link IPonderingBot} are told when their
+     * move has been played and what the opponent answered, so they can think on
+     * the opponent's time. Disabled by default.
+     * @param pondering true to enable pondering
+     */
+    public void setPondering(boolean pondering) {
+        this.pondering = pondering;
+    }
+    public boolean isPondering() {
+        return pondering;
+    }
+
+    /**
+     * Stops bots that are pondering, e.g. when a game is abandoned. Finished
+     * games stop them automatically.
+     */
+    public void stopPondering() {
+        for (int player = 0; player < 2; player++) {
+            IBot playerBot = getBot(player);
+            if (playerBot instanceof IPonderingBot)
+                ((IPonderingBot) playerBot).stopPondering();
+        }
+    }
+
+    /**
+     * @return the moves played through this manager, in order.
+     */
+    public List<IMove> getMoveHistory() {
+        return Collections.unmodifiableList(moveHistory);
+    }
+
     public IGameState getCurrentState()
     {
         return currentState;
@@ -107,9 +254,16 @@ public class GameManager {
     {
         if(!verifyMoveLegality(move)) 
             return false;
+
+        if (hasClock() && !chargeClock())
+            return loseOnTime();
+        turnStart = System.nanoTime();
         
         updateBoard(move);
+        moveHistory.add(move);
         currentPlayer = (currentPlayer + 1) % 2;
+        if (pondering)
+            notifyBots(move, 1 - currentPlayer);
         
         return true;
     }
@@ -126,13 +280,13 @@ public class GameManager {
         //Check if player is bot, if so, get bot input and update the state based on that.
         if(mode == GameMode.HumanVsBot && currentPlayer == 1 && playerGoesFirst)
         {
-             IMove botMove = bot.doMove(new GameState(currentState));
-             return updateGame(botMove);
+             IMove botMove = requestMove(bot);
+             return botMove == null ? handleTimeout() : updateGame(botMove);
         }
         else if(mode == GameMode.HumanVsBot && !playerGoesFirst && currentPlayer == 0)
         {
-            IMove botMove = bot.doMove(new GameState(currentState));
-            return updateGame(botMove);
+            IMove botMove = requestMove(bot);
+            return botMove == null ? handleTimeout() : updateGame(botMove);
         }
         
         //Check bot is not equal to null, and throw an exception if it is.
@@ -145,15 +299,107 @@ public class GameManager {
             assert(bot != null);
             assert(bot2 != null);
 
-            IMove botMove = currentPlayer == 0 ? bot.doMove(new GameState(currentState)) : bot2.doMove(new GameState(currentState));
+            IMove botMove = requestMove(currentPlayer == 0 ? bot : bot2);
 
-            return updateGame(botMove);
+            return botMove == null ? handleTimeout() : updateGame(botMove);
         }
         return false;
     }
 
 
 
+    private IMove requestMove(IBot player) {
+        GameState state = new GameState(currentState);
+        long timeLimit = currentState.getTimePerMove();
+        if (hasClock()) {
+            long bank = Math.max(0, currentState.getTimeBank(currentPlayer) - elapsedMs());
+            timeLimit = bank;
+            state.setTimeBank(currentPlayer, bank);
+            state.setTimePerMove((int) Math.min(bank, bank / CLOCK_MOVES_TO_GO + currentState.getIncrement()));
+        }
+        if (moveTimer == null)
+            return player.doMove(state);
+        IMove move = moveTimer.requestMove(player, state, timeLimit, gracePeriod);
+        if (move == null)
+            timeouts[currentPlayer]++;
+        return move;
+    }
+
+    /**
+     * Applies the timeout policy to the player who missed the deadline.
+     */
+    private Boolean handleTimeout() {
+        if (moveTimer == null)
+            return false; // A bot without a deadline returned no move
+        if (timeoutPolicy == TimeoutPolicy.Forfeit || hasClock())
+            return loseOnTime();
+        List<IMove> moves = currentState.getField().getAvailableMoves();
+        return updateGame(moves.get(random.nextInt(moves.size())));
+    }
+
+    private long elapsedMs() {
+        return (System.nanoTime() - turnStart) / 1_000_000;
+    }
+
+    /**
+     * Takes the time of this turn from the current player's bank and adds the increment.
+     * @return false if the player ran out of time
+     */
+    private boolean chargeClock() {
+        long bank = currentState.getTimeBank(currentPlayer) - elapsedMs();
+        if (bank < -gracePeriod)
+            return false;
+        currentState.setTimeBank(currentPlayer, Math.max(0, bank) + currentState.getIncrement());
+        return true;
+    }
+
+    /**
+     * Ends the game with a loss for the current player, who stays the current player
+     * as after a winning move by the opponent.
+     */
+    private Boolean loseOnTime() {
+        if (hasClock())
+            currentState.setTimeBank(currentPlayer, 0);
+        winner = 1 - currentPlayer;
+        gameOver = GameOverState.Win;
+        stopPondering();
+        return true;
+    }
+
+    /**
+     * @return the bot playing the given side, or null for a human.
+     */
+    private IBot getBot(int player) {
+        if (mode == GameMode.BotVsBot)
+            return player == 0 ? bot : bot2;
+        if (mode == GameMode.HumanVsBot && (player == 1) == playerGoesFirst)
+            return bot;
+        return null;
+    }
+
+    private void notifyBots(IMove move, int mover) {
+        IBot moverBot = getBot(mover);
+        IBot otherBot = getBot(1 - mover);
+        if (moverBot == otherBot)
+            return; // One instance playing both sides can't ponder
+        if (gameOver != GameOverState.Active) {
+            stopPondering();
+            return;
+        }
+        if (otherBot instanceof IPonderingBot && !isBusy(otherBot))
+            ((IPonderingBot) otherBot).opponentMoved(move);
+        if (moverBot instanceof IPonderingBot && !isBusy(moverBot))
+            ((IPonderingBot) moverBot).startPondering(new GameState(currentState));
+    }
+
+    /**
+     * @return true if the bot is still running a move abandoned at its deadline,
+     * and so must not be called until it has returned.
+     */
+    private boolean isBusy(IBot playerBot) {
+        return moveTimer != null && moveTimer.isBusy(playerBot);
+    }
+
     private Boolean verifyMoveLegality(IMove move)
     {
         IField field = currentState.getField();
@@ -191,13 +437,17 @@ public class GameManager {
 
             if(isWin(board,move, ""+currentPlayer))
                 macroBoard[macroX][macroY] = currentPlayer + "";
-            else if(isTie(board,move))
+            else if(isTie(board,move) ||
+                    (earlyTermination && MicroboardPatterns.isDead(MicroboardPatterns.indexOf(board, macroX, macroY))))
                 macroBoard[macroX][macroY] = "TIE";
             
             //Check macro win
-            if(isWin(macroBoard,new Move(macroX,macroY), ""+currentPlayer))
+            if(isWin(macroBoard,new Move(macroX,macroY), ""+currentPlayer)) {
+                winner = currentPlayer;
                 gameOver = GameOverState.Win;
-            else if(isTie(macroBoard,new Move(macroX,macroY)))
+            }
+            else if(isTie(macroBoard,new Move(macroX,macroY)) ||
+                    (earlyTermination && isDrawn(macroBoard)))
                 gameOver = GameOverState.Tie;
         }
 
@@ -220,6 +470,27 @@ public class GameManager {
     }
 
 
+    /**
+     * Checks whether neither player can complete a line on the macroboard any more.
+     * Microboards still in play count as winnable by both players.
+     */
+    public static boolean isDrawn(String[][] macroBoard) {
+        int blockedFor0 = 0;
+        int blockedFor1 = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int k = 0; k < 3; k++) {
+                String value = macroBoard[i][k];
+                if (value.equals(IField.EMPTY_FIELD) || value.equals(IField.AVAILABLE_FIELD))
+                    continue;
+                if (!value.equals("0"))
+                    blockedFor0 |= 1 << (i * 3 + k);
+                if (!value.equals("1"))
+                    blockedFor1 |= 1 << (i * 3 + k);
+            }
+        }
+        return !MicroboardPatterns.hasOpenLine(blockedFor0) && !MicroboardPatterns.hasOpenLine(blockedFor1);
+    }
+
     public static boolean isWin(String[][] board, IMove move, String currentPlayer){
         int localX = move.getX() % 3;
         int localY = move.getY() % 3;
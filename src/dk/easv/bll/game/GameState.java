@@ -8,6 +8,8 @@ public class GameState implements IGameState{
     int moveNumber;
     int roundNumber;
     int timePerMove = 1000; //1000ms default value, can be changes depending on game specifics.
+    long[] timeBank = {NO_CLOCK, NO_CLOCK};
+    int increment;
 
     public GameState(){
         field = new Field();
@@ -22,6 +24,10 @@ public class GameState implements IGameState{
 
         moveNumber = state.getMoveNumber();
         roundNumber = state.getRoundNumber();
+        timePerMove = state.getTimePerMove();
+        timeBank[0] = state.getTimeBank(0);
+        timeBank[1] = state.getTimeBank(1);
+        increment = state.getIncrement();
     }
 
     @Override
@@ -60,4 +66,28 @@ public class GameState implements IGameState{
     {
         this.timePerMove = milliSeconds;
     }
+
+    @Override
+    public long getTimeBank(int player)
+    {
+        return timeBank[player];
+    }
+
+    @Override
+    public void setTimeBank(int player, long milliSeconds)
+    {
+        timeBank[player] = milliSeconds;
+    }
+
+    @Override
+    public int getIncrement()
+    {
+        return increment;
+    }
+
+    @Override
+    public void setIncrement(int milliSeconds)
+    {
+        this.increment = milliSeconds;
+    }
 }
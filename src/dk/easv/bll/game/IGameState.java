@@ -8,6 +8,11 @@ import dk.easv.bll.field.IField;
  */
 public interface IGameState {
 
+    /**
+     * Time bank value of a game without a clock, where only the time per move counts.
+     */
+    long NO_CLOCK = -1;
+
     IField getField();
 
     int getMoveNumber();
@@ -18,4 +23,23 @@ public interface IGameState {
 
     int getTimePerMove();
     void setTimePerMove(int milliSeconds);
+
+    /**
+     * Game states from before clocks existed have none, so these have defaults.
+     * @return the time the player has left on the clock in milliseconds, or NO_CLOCK.
+     */
+    default long getTimeBank(int player) {
+        return NO_CLOCK;
+    }
+    default void setTimeBank(int player, long milliSeconds) {
+    }
+
+    /**
+     * @return the time added to a player's bank after each of their moves, in milliseconds.
+     */
+    default int getIncrement() {
+        return 0;
+    }
+    default void setIncrement(int milliSeconds) {
+    }
 }
@@ -0,0 +1,182 @@
+package dk.easv.bll.game;
+
+import dk.easv.bll.bot.IBot;
+import dk.easv.bll.move.IMove;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs bot moves on worker threads with a hard deadline.
+ *
+ * A bot gets its time per move plus a grace period. After that the move is
+ * abandoned and the bot's thread is interrupted; bots are expected to check
+ * {@link Thread#isInterrupted()} and return, but one that does not only keeps
+ * its own worker thread busy, never the caller. Such a bot is not asked for
+ * another move until the abandoned one has returned; the wait counts against
+ * the deadline of the new move.
+ *
+ * Counts moves, deadline misses and how far finished moves ran over their
+ * time. Thread-safe; one timer can serve many games at once.
+ */
+public class MoveTimer {
+
+    private static final MoveTimer SHARED = new MoveTimer();
+
+    private final ExecutorService executor;
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder lateMoves = new LongAdder();
+    private final LongAdder overrunMs = new LongAdder();
+    private final LongAccumulator maxOverrunMs = new LongAccumulator(Math::max, 0);
+    // Completed when an abandoned move has really returned, by bot
+    private final ConcurrentMap<IBot, CompletableFuture<Void>> abandoned = new ConcurrentHashMap<>();
+
+    public MoveTimer() {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "bot-move-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @return a timer shared by all games that are not given their own.
+     */
+    public static MoveTimer getShared() {
+        return SHARED;
+    }
+
+    /**
+     * Asks the bot for a move and waits at most the time limit plus the grace period.
+     * If the bot is still busy with a move abandoned earlier, that move is waited for
+     * first, within the same deadline.
+     * @return the bot's move, or null if it missed the deadline
+     * @throws RuntimeException if the bot threw one
+     */
+    public IMove requestMove(IBot bot, IGameState state, long timeLimitMs, long graceMs) {
+        long start = System.nanoTime();
+        long budgetMs = timeLimitMs + graceMs;
+        CompletableFuture<Void> previous = abandoned.get(bot);
+        if (previous != null) {
+            try {
+                previous.get(budgetMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException ex) {
+                moves.increment();
+                timeouts.increment();
+                return null;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ex) {
+                // Never completed exceptionally
+            }
+            budgetMs = Math.max(0, budgetMs - (System.nanoTime() - start) / 1_000_000);
+        }
+
+        AtomicBoolean started = new AtomicBoolean();
+        CompletableFuture<Void> finished = new CompletableFuture<>();
+        Future<IMove> future = executor.submit(() -> {
+            if (!started.compareAndSet(false, true))
+                return null; // Abandoned before it started
+            try {
+                return bot.doMove(state);
+            } finally {
+                finished.complete(null);
+                abandoned.remove(bot, finished);
+            }
+        });
+        try {
+            IMove move = future.get(budgetMs, TimeUnit.MILLISECONDS);
+            moves.increment();
+            long overrun = (System.nanoTime() - start) / 1_000_000 - timeLimitMs;
+            if (overrun > 0) {
+                lateMoves.increment();
+                overrunMs.add(overrun);
+                maxOverrunMs.accumulate(overrun);
+            }
+            return move;
+        } catch (TimeoutException ex) {
+            abandon(bot, future, started, finished);
+            moves.increment();
+            timeouts.increment();
+            return null;
+        } catch (InterruptedException ex) {
+            abandon(bot, future, started, finished);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Interrupts the move and, if it has started, remembers it until it returns.
+     */
+    private void abandon(IBot bot, Future<IMove> future, AtomicBoolean started, CompletableFuture<Void> finished) {
+        if (!started.compareAndSet(false, true)) {
+            abandoned.put(bot, finished);
+            if (finished.isDone())
+                abandoned.remove(bot, finished); // Returned while it was being abandoned
+        }
+        future.cancel(true);
+    }
+
+    /**
+     * @return true if the bot is still running a move that was abandoned at its deadline.
+     */
+    public boolean isBusy(IBot bot) {
+        return abandoned.containsKey(bot);
+    }
+
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    /**
+     * @return the number of moves abandoned at the deadline.
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /**
+     * @return the number of moves that used some of the grace period.
+     */
+    public long getLateMoves() {
+        return lateMoves.sum();
+    }
+
+    /**
+     * @return the average time late moves ran over their time per move, in milliseconds.
+     */
+    public double getAverageOverrunMs() {
+        long late = lateMoves.sum();
+        return late == 0 ? 0 : (double) overrunMs.sum() / late;
+    }
+
+    public long getMaxOverrunMs() {
+        return maxOverrunMs.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("moves %d | timeouts %d | late %d (avg %.1f ms, max %d ms)",
+                getMoves(), getTimeouts(), getLateMoves(), getAverageOverrunMs(), getMaxOverrunMs());
+    }
+}
@@ -0,0 +1,239 @@
+package dk.easv.bll.game;
+
+import dk.easv.bll.field.MicroboardPatterns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Text and binary forms of a single position, for test suites, bug reports
+ * and position files.
+ *
+ * The text form is like chess FEN: the nine rows of the board from y = 0,
+ * separated by '/', with x for player 0, o for player 1 and a digit for a run
+ * of empty cells; then the microboard to play in (microX * 3 + microY) or '-'
+ * for any, the side to move and the move number. The starting position is
+ * {@value #START}. Microboards are closed by their cells, so a position from
+ * a game with early termination reads back with its dead microboards open.
+ *
+ * The binary form is {@value #BYTES} bytes. The 81 cells in base 3 do not fit
+ * in 128 bits, so only the microboards still played are kept cell by cell;
+ * a closed one is kept as its status and reads back as a fixed pattern with
+ * that status. The move number is not kept either, it is read back as the
+ * number of stones, rounded up to the side to move. Everything the rules and
+ * the evaluators look at survives, but the hash of a position with closed
+ * microboards changes. Neither form records whether the game is played with
+ * early termination. {@link PositionNotationCheck} checks both forms.
+ *
+ * Layout, little-endian: {@code long low, long high}, where low holds
+ * microboards 0-3 in base {@link #RADIX}, times 20, plus the side to move
+ * times 10 plus the active microboard plus one, and high holds microboards
+ * 4-7 in base {@link #RADIX}. The code of microboard 8 takes the 5 bits left
+ * at the top of low and the 9 bits left at the top of high.
+ */
+public final class PositionNotation {
+
+    public static final String START = "9/9/9/9/9/9/9/9/9 - x 0";
+    public static final int BYTES = 16;
+
+    // A microboard code is the rank of an open pattern, or OPEN_PATTERNS + status - 1 for a closed one
+    private static final short[] CODE_OF_PATTERN = new short[MicroboardPatterns.PATTERNS];
+    private static final short[] PATTERN_OF_CODE;
+    private static final int OPEN_PATTERNS;
+    public static final int RADIX;
+
+    private static final long LOW_MASK = (1L << 59) - 1;
+    private static final long HIGH_MASK = (1L << 54) - 1;
+
+    static {
+        short[] patterns = new short[MicroboardPatterns.PATTERNS];
+        int open = 0;
+        for (int index = 0; index < MicroboardPatterns.PATTERNS; index++) {
+            if (MicroboardPatterns.status(index) == MicroboardPatterns.OPEN) {
+                CODE_OF_PATTERN[index] = (short) open;
+                patterns[open++] = (short) index;
+            }
+        }
+        OPEN_PATTERNS = open;
+        RADIX = open + 3;
+        PATTERN_OF_CODE = new short[RADIX];
+        System.arraycopy(patterns, 0, PATTERN_OF_CODE, 0, open);
+        // x on a diagonal, o on a diagonal, and a full board without a line
+        PATTERN_OF_CODE[open + MicroboardPatterns.WON_0 - 1] = (short) pattern("x...x...x");
+        PATTERN_OF_CODE[open + MicroboardPatterns.WON_1 - 1] = (short) pattern("o...o...o");
+        PATTERN_OF_CODE[open + MicroboardPatterns.TIE - 1] = (short) pattern("xoxxoooxx");
+        for (int index = 0; index < MicroboardPatterns.PATTERNS; index++) {
+            byte status = MicroboardPatterns.status(index);
+            if (status != MicroboardPatterns.OPEN)
+                CODE_OF_PATTERN[index] = (short) (open + status - 1);
+        }
+    }
+
+    private PositionNotation() {
+    }
+
+    private static int pattern(String cells) {
+        int index = 0;
+        for (int cell = 0; cell < 9; cell++) {
+            char c = cells.charAt(cell);
+            if (c != '.') index = MicroboardPatterns.play(index, cell, c == 'x' ? 0 : 1);
+        }
+        return index;
+    }
+
+    public static String format(SearchState state) {
+        return format(state, new StringBuilder(32)).toString();
+    }
+
+    public static String format(IGameState state) {
+        return format(new SearchState(state));
+    }
+
+    /**
+     * Appends the text form of the position.
+     * @return the builder
+     */
+    public static StringBuilder format(SearchState state, StringBuilder out) {
+        for (int y = 0; y < 9; y++) {
+            if (y > 0) out.append('/');
+            int empty = 0;
+            for (int x = 0; x < 9; x++) {
+                int cell = state.getCell(x * 9 + y);
+                if (cell == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) out.append((char) ('0' + empty));
+                empty = 0;
+                out.append(cell == 1 ? 'x' : 'o');
+            }
+            if (empty > 0) out.append((char) ('0' + empty));
+        }
+        out.append(' ');
+        if (state.getActiveMicro() == SearchState.ANY) out.append('-');
+        else out.append((char) ('0' + state.getActiveMicro()));
+        out.append(' ').append(state.getSideToMove() == 0 ? 'x' : 'o');
+        out.append(' ').append(state.getMoveNumber());
+        return out;
+    }
+
+    /**
+     * Reads the text form of a position.
+     * @throws IllegalArgumentException if the text is not a valid position
+     */
+    public static SearchState parse(CharSequence text) {
+        int[] patterns = new int[9];
+        int i = 0;
+        for (int y = 0; y < 9; y++) {
+            if (y > 0) expect(text, i++, '/');
+            boolean run = false; // Two runs in a row are written as one
+            for (int x = 0; x < 9; ) {
+                char c = charAt(text, i++);
+                if (c >= '1' && c <= '9' && x + (c - '0') <= 9 && !run) {
+                    x += c - '0';
+                    run = true;
+                } else if (c == 'x' || c == 'o') {
+                    int move = x * 9 + y;
+                    int m = SearchState.microOf(move);
+                    patterns[m] = MicroboardPatterns.play(patterns[m], SearchState.cellOf(move), c == 'x' ? 0 : 1);
+                    x++;
+                    run = false;
+                } else {
+                    throw error(text, i - 1);
+                }
+            }
+        }
+        expect(text, i++, ' ');
+        char c = charAt(text, i++);
+        int active;
+        if (c == '-') active = SearchState.ANY;
+        else if (c >= '0' && c <= '8') active = c - '0';
+        else throw error(text, i - 1);
+        expect(text, i++, ' ');
+        c = charAt(text, i++);
+        if (c != 'x' && c != 'o') throw error(text, i - 1);
+        int side = c == 'x' ? 0 : 1;
+        expect(text, i++, ' ');
+        int moveNumber = 0;
+        int digits = i;
+        for (; i < text.length() && text.charAt(i) >= '0' && text.charAt(i) <= '9' && moveNumber <= 81; i++)
+            moveNumber = moveNumber * 10 + text.charAt(i) - '0';
+        if (i == digits || i != text.length() || moveNumber > 81 || moveNumber % 2 != side)
+            throw error(text, digits);
+
+        byte[] status = new byte[9];
+        for (int m = 0; m < 9; m++)
+            status[m] = MicroboardPatterns.status(patterns[m]);
+        if (active != SearchState.ANY && status[active] != MicroboardPatterns.OPEN)
+            throw new IllegalArgumentException("Active microboard " + active + " is closed: " + text);
+        return new SearchState(patterns, status, active, moveNumber);
+    }
+
+    private static char charAt(CharSequence text, int i) {
+        if (i >= text.length()) throw error(text, i);
+        return text.charAt(i);
+    }
+
+    private static void expect(CharSequence text, int i, char c) {
+        if (charAt(text, i) != c) throw error(text, i);
+    }
+
+    private static IllegalArgumentException error(CharSequence text, int i) {
+        return new IllegalArgumentException("Bad position at character " + i + ": " + text);
+    }
+
+    /**
+     * Writes the {@value #BYTES} byte form of the position.
+     */
+    public static void write(SearchState state, ByteBuffer out) {
+        long low = 0;
+        long high = 0;
+        for (int m = 0; m < 4; m++) {
+            low = low * RADIX + code(state, m);
+            high = high * RADIX + code(state, m + 4);
+        }
+        low = low * 20 + state.getSideToMove() * 10 + state.getActiveMicro() + 1;
+        long last = code(state, 8);
+        low |= (last & 0x1F) << 59;
+        high |= (last >>> 5) << 54;
+        out.putLong(low).putLong(high);
+    }
+
+    private static int code(SearchState state, int m) {
+        return state.getMicroStatus(m) == MicroboardPatterns.OPEN
+                ? CODE_OF_PATTERN[state.getMicroIndex(m)] : OPEN_PATTERNS + state.getMicroStatus(m) - 1;
+    }
+
+    /**
+     * Reads a position written by {@link #write(SearchState, ByteBuffer)}.
+     */
+    public static SearchState read(ByteBuffer in) {
+        long low = in.getLong();
+        long high = in.getLong();
+        int last = (int) (low >>> 59 | (high >>> 54) << 5);
+        low &= LOW_MASK;
+        high &= HIGH_MASK;
+        int tempo = (int) (low % 20);
+        low /= 20;
+
+        int[] patterns = new int[9];
+        byte[] status = new byte[9];
+        decode(last, 8, patterns, status);
+        for (int m = 3; m >= 0; m--) {
+            decode((int) (low % RADIX), m, patterns, status);
+            decode((int) (high % RADIX), m + 4, patterns, status);
+            low /= RADIX;
+            high /= RADIX;
+        }
+        int side = tempo / 10;
+        int stones = 0;
+        for (int m = 0; m < 9; m++)
+            stones += 9 - Integer.bitCount(MicroboardPatterns.emptyCells(patterns[m]));
+        return new SearchState(patterns, status, tempo % 10 - 1, stones + ((stones ^ side) & 1));
+    }
+
+    private static void decode(int code, int m, int[] patterns, byte[] status) {
+        if (code >= RADIX) throw new IllegalArgumentException("Bad microboard code " + code);
+        patterns[m] = PATTERN_OF_CODE[code];
+        status[m] = code < OPEN_PATTERNS ? MicroboardPatterns.OPEN : (byte) (code - OPEN_PATTERNS + 1);
+    }
+}
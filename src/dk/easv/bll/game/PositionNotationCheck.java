@@ -0,0 +1,202 @@
+package dk.easv.bll.game;
+
+import dk.easv.bll.field.MicroboardPatterns;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Self-check of {@link PositionNotation}. Plays random games and checks every
+ * position on the way: text to {@link SearchState} to {@link GameState} and
+ * back to the same text, and the binary form, which must keep everything but
+ * the cells of closed microboards and the move number. Then checks the lossy
+ * cases and that malformed text is rejected.
+ *
+ * Usage: {@code PositionNotationCheck --games=2000 --seed=1}. Prints the
+ * failures and exits with status 1 if there are any.
+ */
+public class PositionNotationCheck {
+
+    private static final int MAX_LISTED = 10;
+
+    private final List<String> failures = new ArrayList<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(PositionNotation.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private int positions;
+    private int closedPositions;
+
+    private void check(boolean ok, String what, String position) {
+        if (!ok) failures.add(what + ": " + position);
+    }
+
+    /**
+     * Checks every position of the given number of random games, with and without early termination.
+     */
+    public void checkGames(int games, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] moves = new int[81];
+        for (int game = 0; game < games; game++) {
+            SearchState state = new SearchState(new GameState(), game % 2 == 1);
+            while (true) {
+                checkText(state);
+                checkBinary(state);
+                positions++;
+                if (state.getClosedMicros() != 0) closedPositions++;
+                if (state.isGameOver()) break;
+                state.make(moves[random.nextInt(state.legalMoves(moves))]);
+            }
+        }
+    }
+
+    private void checkText(SearchState state) {
+        String text = PositionNotation.format(state);
+        SearchState parsed = PositionNotation.parse(text);
+        check(PositionNotation.format(parsed).equals(text), "text does not read back", text);
+
+        // Through the game state the bots see. Its macroboard marks the microboards that can be played,
+        // and a finished game has none to play in. Text keeps dead microboards open, so a game ended
+        // early may read back with one microboard left, which the game state makes the active one.
+        GameState game = new GameState();
+        parsed.copyTo(game);
+        SearchState fromGame = new SearchState(game);
+        String[] fields = PositionNotation.format(fromGame).split(" ");
+        String[] expected = text.split(" ");
+        check(fields[0].equals(expected[0]) && fields[2].equals(expected[2]) && fields[3].equals(expected[3]),
+                "text does not survive a GameState", text);
+        if (fromGame.getActiveMicro() == parsed.getActiveMicro())
+            check(fromGame.getHash() == parsed.getHash(), "hash changes through a GameState", text);
+        else
+            check(parsed.isGameOver() || state.isEarlyTermination(),
+                    "active microboard changes through a GameState", text);
+        check(fromGame.getResult() == parsed.getResult(), "result changes through a GameState", text);
+
+        // Text closes microboards by their cells only, so only dead ones may read back open
+        for (int m = 0; m < 9; m++) {
+            boolean same = parsed.getMicroStatus(m) == state.getMicroStatus(m);
+            boolean dead = state.isEarlyTermination() && parsed.getMicroStatus(m) == MicroboardPatterns.OPEN
+                    && MicroboardPatterns.isDead(state.getMicroIndex(m));
+            check(same || dead, "microboard " + m + " changes status", text);
+        }
+        if (!state.isEarlyTermination())
+            check(parsed.getHash() == state.getHash(), "hash changes", text);
+    }
+
+    private void checkBinary(SearchState state) {
+        String text = PositionNotation.format(state);
+        buffer.clear();
+        PositionNotation.write(state, buffer);
+        check(buffer.position() == PositionNotation.BYTES, "wrong binary size", text);
+        buffer.flip();
+        SearchState read = PositionNotation.read(buffer);
+
+        check(read.getActiveMicro() == state.getActiveMicro(), "active microboard changes", text);
+        check(read.getSideToMove() == state.getSideToMove(), "side to move changes", text);
+        check(read.getClosedMicros() == state.getClosedMicros(), "closed microboards change", text);
+        // The rules are not part of the position, a game ended early reads back as still going
+        boolean endedEarly = state.isEarlyTermination() && state.isGameOver();
+        check(read.getResult() == state.getResult() || endedEarly, "result changes", text);
+        for (int m = 0; m < 9; m++) {
+            check(read.getMicroStatus(m) == state.getMicroStatus(m), "microboard " + m + " changes status", text);
+            if (state.getMicroStatus(m) == MicroboardPatterns.OPEN)
+                check(read.getMicroIndex(m) == state.getMicroIndex(m), "open microboard " + m + " changes", text);
+        }
+        int[] expected = new int[81];
+        int[] actual = new int[81];
+        int count = state.legalMoves(expected);
+        check(Arrays.equals(expected, 0, count, actual, 0, read.legalMoves(actual)) || endedEarly, "legal moves change", text);
+        // Games from the start have one stone per move, so only closed microboards change the move number
+        if (state.getClosedMicros() == 0) {
+            check(read.getMoveNumber() == state.getMoveNumber(), "move number changes", text);
+            check(read.getHash() == state.getHash(), "hash changes", text);
+        }
+    }
+
+    /**
+     * Checks the cases the binary form does not keep and that bad text is rejected.
+     */
+    public void checkEdgeCases() {
+        check(PositionNotation.format(new SearchState()).equals(PositionNotation.START), "start position", PositionNotation.START);
+
+        // A move number that does not match the stones reads back as the stone count, rounded to the side to move
+        String skipped = "x8/9/9/9/9/9/9/9/9 0 o 3";
+        SearchState read = binaryRoundTrip(PositionNotation.parse(skipped));
+        check(read.getMoveNumber() == 1, "move number is not the stone count", skipped);
+        check(read.getSideToMove() == 1, "side to move changes", skipped);
+
+        // A won microboard reads back as a diagonal of the winner, a full one as a fixed tie
+        String won = "xxxo5/3o5/9/9/9/9/9/9/9 - o 5";
+        SearchState wonState = PositionNotation.parse(won);
+        read = binaryRoundTrip(wonState);
+        check(read.getMicroStatus(0) == MicroboardPatterns.WON_0, "won microboard changes status", won);
+        check(PositionNotation.format(read).equals("x2o5/1x1o5/2x6/9/9/9/9/9/9 - o 5"), "won microboard is not a diagonal", won);
+        check(read.getMicroIndex(3) == wonState.getMicroIndex(3), "open microboard changes", won);
+        check(read.getHash() != wonState.getHash(), "hash of a closed microboard is kept", won);
+
+        String tied = "xox6/xoo6/oxx6/9/9/9/9/9/9 - o 9";
+        read = binaryRoundTrip(PositionNotation.parse(tied));
+        check(read.getMicroStatus(0) == MicroboardPatterns.TIE, "tied microboard changes status", tied);
+        check(read.getMoveNumber() == 9, "move number is not the stone count", tied);
+
+        String[] malformed = {
+                "",
+                "9/9/9/9/9/9/9/9/9 - x 1",   // Move number does not match the side to move
+                "9/9/9/9/9/9/9/9/8 - x 0",   // Short row
+                "9/9/9/9/9/9/9/9/9 9 x 0",   // No such microboard
+                "9/9/9/9/9/9/9/9/9 - x 0 ",  // Trailing text
+                "54/9/9/9/9/9/9/9/9 - x 0",  // Two runs in a row
+                "9/9/9/9/9/9/9/9/9 - x 82",  // Past the last move
+                "xxxo5/3o5/9/9/9/9/9/9/9 0 o 5" // Active microboard is won
+        };
+        for (String text : malformed) {
+            try {
+                PositionNotation.parse(text);
+                failures.add("malformed text accepted: " + text);
+            } catch (IllegalArgumentException ex) {
+                // Expected
+            }
+        }
+    }
+
+    private SearchState binaryRoundTrip(SearchState state) {
+        buffer.clear();
+        PositionNotation.write(state, buffer);
+        buffer.flip();
+        return PositionNotation.read(buffer);
+    }
+
+    public List<String> getFailures() {
+        return failures;
+    }
+
+    public static void main(String[] args) {
+        int games = 2000;
+        long seed = 1;
+        for (String arg : args) {
+            String[] option = arg.split("=", 2);
+            switch (option[0]) {
+                case "--games":
+                    games = Integer.parseInt(option[1]);
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(option[1]);
+                    break;
+                default:
+                    System.err.println("Unknown option " + arg);
+                    System.exit(2);
+            }
+        }
+
+        PositionNotationCheck check = new PositionNotationCheck();
+        check.checkGames(games, seed);
+        check.checkEdgeCases();
+        List<String> failures = check.getFailures();
+        System.out.printf("%d positions from %d games, %d with closed microboards, %d failures%n",
+                check.positions, games, check.closedPositions, failures.size());
+        for (String failure : failures.subList(0, Math.min(MAX_LISTED, failures.size())))
+            System.out.println("  " + failure);
+        if (!failures.isEmpty()) System.exit(1);
+    }
+}
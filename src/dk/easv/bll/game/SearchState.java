@@ -0,0 +1,409 @@
+package dk.easv.bll.game;
+
+import dk.easv.bll.field.IField;
+import dk.easv.bll.field.MicroboardPatterns;
+import dk.easv.bll.move.IMove;
+import dk.easv.bll.move.Move;
+
+import java.util.SplittableRandom;
+
+/**
+ * A compact, mutable copy of the rules for search and simulation.
+ * Moves are applied with {@link #make(int)} and taken back with {@link #unmake()},
+ * so a search can walk the tree without cloning String boards.
+ *
+ * Moves are encoded as {@code x * 9 + y}, microboards as {@code microX * 3 + microY}
+ * and cells inside a microboard as {@code localX * 3 + localY}, the same layout
+ * as {@code board[x][y]} in {@link IField}.
+ *
+ * The rules are the same as in {@link GameManager}, including the optional
+ * early termination of dead microboards and drawn macroboards.
+ */
+public final class SearchState {
+
+    public static final int ANY = -1;
+
+    public static final int ONGOING = -1;
+    public static final int WIN_0 = 0;
+    public static final int WIN_1 = 1;
+    public static final int TIE = 2;
+
+    private static final int ALL = 0x1FF;
+
+    // Zobrist keys, from a fixed seed so hashes stay the same between runs and can be stored in files
+    private static final long[][] CELL_KEYS = new long[2][81];
+    private static final long[] ACTIVE_KEYS = new long[10];
+    private static final long SIDE_KEY;
+    // The cell key of the image of each move under every symmetry, the eight keys of a move side by side
+    private static final long[] SYMMETRIC_KEYS = new long[2 * 81 * Symmetry.COUNT];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED_0077L);
+        for (int player = 0; player < 2; player++)
+            for (int move = 0; move < 81; move++)
+                CELL_KEYS[player][move] = random.nextLong();
+        for (int i = 0; i < 10; i++)
+            ACTIVE_KEYS[i] = random.nextLong();
+        SIDE_KEY = random.nextLong();
+        for (int player = 0; player < 2; player++)
+            for (int move = 0; move < 81; move++)
+                for (int t = 0; t < Symmetry.COUNT; t++)
+                    SYMMETRIC_KEYS[(player * 81 + move) * Symmetry.COUNT + t] =
+                            CELL_KEYS[player][Symmetry.transformMove(t, move)];
+    }
+
+    private final int[] micro = new int[9];
+    private final byte[] status = new byte[9];
+    private int closed;
+    private final int[] won = new int[2];
+    private int tied;
+    private int active = ANY;
+    private int sideToMove;
+    private int moveNumber;
+    private int result = ONGOING;
+    // Hash of the cells of the position mapped through each symmetry, identity first
+    private final long[] cellHashes = new long[Symmetry.COUNT];
+    private boolean earlyTermination;
+    private final ThreatMap threats = new ThreatMap();
+
+    // Undo stack, one entry per ply: move | previous active << 8 | previous result << 16 | status changed << 24
+    private final int[] history = new int[81];
+    private int ply;
+
+    /**
+     * Creates the empty starting position.
+     */
+    public SearchState() {
+        threats.refresh(this);
+    }
+
+    /**
+     * Copies a position from the game state. The side to move follows the move number.
+     */
+    public SearchState(IGameState state) {
+        this(state, false);
+    }
+
+    public SearchState(IGameState state, boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+        String[][] board = state.getField().getBoard();
+        String[][] macroboard = state.getField().getMacroboard();
+        int available = 0;
+        for (int microX = 0; microX < 3; microX++) {
+            for (int microY = 0; microY < 3; microY++) {
+                int m = microX * 3 + microY;
+                micro[m] = MicroboardPatterns.indexOf(board, microX, microY);
+                for (int cell = 0; cell < 9; cell++) {
+                    int digit = MicroboardPatterns.digit(micro[m], cell);
+                    if (digit != 0)
+                        hashCell(digit - 1, moveOf(m, cell));
+                }
+                String value = macroboard[microX][microY];
+                if (value.equals(IField.AVAILABLE_FIELD)) {
+                    available |= 1 << m;
+                } else if (!value.equals(IField.EMPTY_FIELD)) {
+                    close(m, value.equals("0") ? MicroboardPatterns.WON_0
+                            : value.equals("1") ? MicroboardPatterns.WON_1
+                            : MicroboardPatterns.TIE);
+                }
+            }
+        }
+        active = Integer.bitCount(available) == 1 ? Integer.numberOfTrailingZeros(available) : ANY;
+        moveNumber = state.getMoveNumber();
+        sideToMove = moveNumber % 2;
+        result = macroResult();
+        threats.refresh(this);
+    }
+
+    /**
+     * Sets up a position from its microboard patterns, see {@link PositionNotation}.
+     * The side to move follows the move number.
+     * @param status the status of each microboard, OPEN for those still played
+     */
+    SearchState(int[] patterns, byte[] status, int active, int moveNumber) {
+        for (int m = 0; m < 9; m++) {
+            micro[m] = patterns[m];
+            for (int cell = 0; cell < 9; cell++) {
+                int digit = MicroboardPatterns.digit(micro[m], cell);
+                if (digit != 0)
+                    hashCell(digit - 1, moveOf(m, cell));
+            }
+            if (status[m] != MicroboardPatterns.OPEN)
+                close(m, status[m]);
+        }
+        this.active = active;
+        this.moveNumber = moveNumber;
+        sideToMove = moveNumber % 2;
+        result = macroResult();
+        threats.refresh(this);
+    }
+
+    public SearchState(SearchState other) {
+        System.arraycopy(other.micro, 0, micro, 0, 9);
+        System.arraycopy(other.status, 0, status, 0, 9);
+        System.arraycopy(other.history, 0, history, 0, other.ply);
+        closed = other.closed;
+        System.arraycopy(other.cellHashes, 0, cellHashes, 0, Symmetry.COUNT);
+        won[0] = other.won[0];
+        won[1] = other.won[1];
+        tied = other.tied;
+        active = other.active;
+        sideToMove = other.sideToMove;
+        moveNumber = other.moveNumber;
+        result = other.result;
+        earlyTermination = other.earlyTermination;
+        ply = other.ply;
+        threats.refresh(this);
+    }
+
+    /**
+     * Plays a legal move for the side to move. Legality is not checked.
+     */
+    public void make(int move) {
+        int m = microOf(move);
+        int cell = cellOf(move);
+        int entry = move | (active + 1) << 8 | (result + 1) << 16;
+
+        micro[m] = MicroboardPatterns.play(micro[m], cell, sideToMove);
+        hashCell(sideToMove, move);
+        byte newStatus = MicroboardPatterns.status(micro[m]);
+        if (newStatus == MicroboardPatterns.OPEN && earlyTermination && MicroboardPatterns.isDead(micro[m]))
+            newStatus = MicroboardPatterns.TIE;
+        if (newStatus != MicroboardPatterns.OPEN) {
+            close(m, newStatus);
+            result = macroResult();
+            entry |= 1 << 24;
+        }
+        history[ply++] = entry;
+
+        // Sent to a closed microboard any open one may be played, with one left that is the one, as the game state has it
+        int open = ~closed & ALL;
+        if ((closed & (1 << cell)) == 0) active = cell;
+        else active = Integer.bitCount(open) == 1 ? Integer.numberOfTrailingZeros(open) : ANY;
+        sideToMove ^= 1;
+        moveNumber++;
+        threats.update(this, m, newStatus != MicroboardPatterns.OPEN);
+    }
+
+    /**
+     * Takes back the last move played with {@link #make(int)}.
+     */
+    public void unmake() {
+        int entry = history[--ply];
+        int move = entry & 0xFF;
+        int m = microOf(move);
+        boolean statusChanged = (entry >>> 24) != 0;
+
+        sideToMove ^= 1;
+        moveNumber--;
+        active = ((entry >>> 8) & 0xFF) - 1;
+        result = ((entry >>> 16) & 0xFF) - 1;
+        micro[m] = MicroboardPatterns.undo(micro[m], cellOf(move), sideToMove);
+        hashCell(sideToMove, move);
+        if (statusChanged) {
+            int bit = 1 << m;
+            closed &= ~bit;
+            won[0] &= ~bit;
+            won[1] &= ~bit;
+            tied &= ~bit;
+            status[m] = MicroboardPatterns.OPEN;
+        }
+        threats.update(this, m, statusChanged);
+    }
+
+    private void hashCell(int player, int move) {
+        int base = (player * 81 + move) * Symmetry.COUNT;
+        for (int t = 0; t < Symmetry.COUNT; t++)
+            cellHashes[t] ^= SYMMETRIC_KEYS[base + t];
+    }
+
+    private void close(int m, byte newStatus) {
+        int bit = 1 << m;
+        status[m] = newStatus;
+        closed |= bit;
+        if (newStatus == MicroboardPatterns.WON_0) won[0] |= bit;
+        else if (newStatus == MicroboardPatterns.WON_1) won[1] |= bit;
+        else tied |= bit;
+    }
+
+    private int macroResult() {
+        if (MicroboardPatterns.hasLine(won[0])) return WIN_0;
+        if (MicroboardPatterns.hasLine(won[1])) return WIN_1;
+        if (closed == ALL) return TIE;
+        if (earlyTermination
+                && !MicroboardPatterns.hasOpenLine(won[1] | tied)
+                && !MicroboardPatterns.hasOpenLine(won[0] | tied))
+            return TIE;
+        return ONGOING;
+    }
+
+    /**
+     * Writes the legal moves into the array.
+     * @param moves array with room for at least 81 moves
+     * @return the number of moves written
+     */
+    public int legalMoves(int[] moves) {
+        if (result != ONGOING) return 0;
+        int count = 0;
+        int micros = getPlayableMicros();
+        while (micros != 0) {
+            int m = Integer.numberOfTrailingZeros(micros);
+            micros &= micros - 1;
+            int empty = MicroboardPatterns.emptyCells(micro[m]);
+            while (empty != 0) {
+                int cell = Integer.numberOfTrailingZeros(empty);
+                empty &= empty - 1;
+                moves[count++] = moveOf(m, cell);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return bitmask of the microboards the side to move may play in.
+     */
+    public int getPlayableMicros() {
+        if (result != ONGOING) return 0;
+        return active == ANY ? ~closed & ALL : 1 << active;
+    }
+
+    public boolean isGameOver() {
+        return result != ONGOING;
+    }
+
+    /**
+     * @return ONGOING, WIN_0, WIN_1 or TIE.
+     */
+    public int getResult() {
+        return result;
+    }
+
+    /**
+     * @return a 64-bit Zobrist hash of the cells, the active microboard and the side to move.
+     * The keys are fixed, so the hash of a position is the same in every run.
+     */
+    public long getHash() {
+        return cellHashes[Symmetry.IDENTITY] ^ ACTIVE_KEYS[active + 1] ^ (sideToMove == 1 ? SIDE_KEY : 0);
+    }
+
+    /**
+     * @return the hash of this position mapped through a board symmetry, the same as
+     * {@link #getHash()} of the transformed position. Kept up to date on every move,
+     * so this is a few table lookups. See {@link Symmetry}.
+     */
+    public long getHash(int transform) {
+        return cellHashes[transform] ^ ACTIVE_KEYS[active == ANY ? 0 : Symmetry.transformMicro(transform, active) + 1]
+                ^ (sideToMove == 1 ? SIDE_KEY : 0);
+    }
+
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    public int getMoveNumber() {
+        return moveNumber;
+    }
+
+    /**
+     * @return the microboard the side to move must play in, or ANY.
+     */
+    public int getActiveMicro() {
+        return active;
+    }
+
+    public int getMicroIndex(int m) {
+        return micro[m];
+    }
+
+    /**
+     * @return the live array of pattern indices, do not modify.
+     */
+    public int[] getMicroIndices() {
+        return micro;
+    }
+
+    public byte getMicroStatus(int m) {
+        return status[m];
+    }
+
+    public int getClosedMicros() {
+        return closed;
+    }
+
+    public int getWonMicros(int player) {
+        return won[player];
+    }
+
+    public int getTiedMicros() {
+        return tied;
+    }
+
+    public boolean isEarlyTermination() {
+        return earlyTermination;
+    }
+
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
+
+    public ThreatMap getThreats() {
+        return threats;
+    }
+
+    /**
+     * @return the last move played, or -1 if no move has been made on this state.
+     */
+    public int getLastMove() {
+        return ply == 0 ? -1 : history[ply - 1] & 0xFF;
+    }
+
+    /**
+     * @return 0 for an empty cell, 1 for player 0 and 2 for player 1.
+     */
+    public int getCell(int move) {
+        return MicroboardPatterns.digit(micro[microOf(move)], cellOf(move));
+    }
+
+    /**
+     * Writes the position to a game state, so it can be handed to the engine or a bot.
+     */
+    public void copyTo(IGameState state) {
+        String[][] board = state.getField().getBoard();
+        String[][] macroboard = state.getField().getMacroboard();
+        for (int move = 0; move < 81; move++) {
+            int cell = getCell(move);
+            board[move / 9][move % 9] = cell == 0 ? IField.EMPTY_FIELD : String.valueOf(cell - 1);
+        }
+        int playable = getPlayableMicros();
+        for (int m = 0; m < 9; m++) {
+            String value;
+            if (status[m] == MicroboardPatterns.WON_0) value = "0";
+            else if (status[m] == MicroboardPatterns.WON_1) value = "1";
+            else if (status[m] == MicroboardPatterns.TIE) value = "TIE";
+            else value = (playable & (1 << m)) != 0 ? IField.AVAILABLE_FIELD : IField.EMPTY_FIELD;
+            macroboard[m / 3][m % 3] = value;
+        }
+        state.setMoveNumber(moveNumber);
+        state.setRoundNumber(moveNumber / 2);
+    }
+
+    public static int moveOf(int micro, int cell) {
+        return ((micro / 3) * 3 + cell / 3) * 9 + (micro % 3) * 3 + cell % 3;
+    }
+
+    public static int toMove(IMove move) {
+        return move.getX() * 9 + move.getY();
+    }
+
+    public static IMove toIMove(int move) {
+        return new Move(move / 9, move % 9);
+    }
+
+    public static int microOf(int move) {
+        return (move / 27) * 3 + (move % 9) / 3;
+    }
+
+    public static int cellOf(int move) {
+        return ((move / 9) % 3) * 3 + move % 3;
+    }
+}
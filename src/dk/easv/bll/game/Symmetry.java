@@ -0,0 +1,160 @@
+package dk.easv.bll.game;
+
+/**
+ * The eight symmetries of the board: rotations and reflections applied to the
+ * macroboard and every microboard together, so the rules are unchanged.
+ *
+ * Transform 0 is the identity. Moves are encoded as in {@link SearchState}.
+ * The permutation tables are built once; {@link SearchState} keeps the hash of
+ * the position under every transform up to date as moves are made, so finding
+ * the canonical form is eight lookups and a minimum. Tables, books and datasets
+ * can store one entry per canonical hash and map moves in and out with
+ * {@link #toCanonical} and {@link #fromCanonical}.
+ */
+public final class Symmetry {
+
+    public static final int COUNT = 8;
+    public static final int IDENTITY = 0;
+
+    private static final int[][] MOVE = new int[COUNT][81];
+    private static final int[][] MICRO = new int[COUNT][9];
+    private static final int[] INVERSE = new int[COUNT];
+
+    static {
+        for (int t = 0; t < COUNT; t++) {
+            for (int x = 0; x < 9; x++)
+                for (int y = 0; y < 9; y++)
+                    MOVE[t][x * 9 + y] = map(t, x, y, 8);
+            for (int x = 0; x < 3; x++)
+                for (int y = 0; y < 3; y++) {
+                    int mapped = map(t, x, y, 2);
+                    MICRO[t][x * 3 + y] = (mapped / 9) * 3 + mapped % 9;
+                }
+        }
+        for (int t = 0; t < COUNT; t++)
+            for (int u = 0; u < COUNT; u++)
+                if (MOVE[u][MOVE[t][1]] == 1 && MOVE[u][MOVE[t][9]] == 9)
+                    INVERSE[t] = u;
+    }
+
+    private Symmetry() {
+    }
+
+    /**
+     * @return the image of (x, y) on a grid with coordinates 0..n, encoded as x * 9 + y.
+     */
+    private static int map(int t, int x, int y, int n) {
+        int tx, ty;
+        switch (t) {
+            case 0: tx = x; ty = y; break;
+            case 1: tx = y; ty = n - x; break;
+            case 2: tx = n - x; ty = n - y; break;
+            case 3: tx = n - y; ty = x; break;
+            case 4: tx = n - x; ty = y; break;
+            case 5: tx = x; ty = n - y; break;
+            case 6: tx = y; ty = x; break;
+            default: tx = n - y; ty = n - x; break;
+        }
+        return tx * 9 + ty;
+    }
+
+    public static int transformMove(int transform, int move) {
+        return MOVE[transform][move];
+    }
+
+    public static int transformMicro(int transform, int micro) {
+        return MICRO[transform][micro];
+    }
+
+    /**
+     * @return the transform that undoes the given one.
+     */
+    public static int inverse(int transform) {
+        return INVERSE[transform];
+    }
+
+    /**
+     * Maps a move from a position to the canonical form of that position.
+     * @param transform the canonical transform of the position
+     */
+    public static int toCanonical(int transform, int move) {
+        return MOVE[transform][move];
+    }
+
+    /**
+     * Maps a move from the canonical form back to the original position.
+     * @param transform the canonical transform of the original position
+     */
+    public static int fromCanonical(int transform, int move) {
+        return MOVE[INVERSE[transform]][move];
+    }
+
+    /**
+     * @return the hash of the position after the transform.
+     */
+    public static long hash(SearchState state, int transform) {
+        return state.getHash(transform);
+    }
+
+    /**
+     * @return the transform that takes the position to its canonical form, the one with the
+     * smallest hash. If the position is symmetric, the lowest such transform.
+     */
+    public static int canonicalTransform(SearchState state) {
+        int best = IDENTITY;
+        long bestHash = state.getHash();
+        for (int t = 1; t < COUNT; t++) {
+            long hash = state.getHash(t);
+            if (Long.compareUnsigned(hash, bestHash) < 0) {
+                bestHash = hash;
+                best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the hash of the canonical form, the same for all eight symmetric positions.
+     */
+    public static long canonicalHash(SearchState state) {
+        long best = state.getHash();
+        for (int t = 1; t < COUNT; t++) {
+            long hash = state.getHash(t);
+            if (Long.compareUnsigned(hash, best) < 0) best = hash;
+        }
+        return best;
+    }
+
+    /**
+     * @return a bitmask of the transforms that leave the position unchanged; bit 0 is always set.
+     */
+    public static int stabilizer(SearchState state) {
+        long hash = state.getHash();
+        int mask = 1 << IDENTITY;
+        for (int t = 1; t < COUNT; t++)
+            if (state.getHash(t) == hash) mask |= 1 << t;
+        return mask;
+    }
+
+    /**
+     * Removes moves that are equivalent to another move by a symmetry of the position,
+     * keeping the lowest-numbered move of each group. Moves that lead to the same
+     * position up to symmetry have the same value, so a search needs only one of them.
+     * @param moves the legal moves; compacted in place
+     * @param count the number of moves
+     * @return the number of moves kept
+     */
+    public static int uniqueMoves(SearchState state, int[] moves, int count) {
+        int stabilizer = stabilizer(state) & ~(1 << IDENTITY);
+        if (stabilizer == 0) return count;
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            boolean representative = true;
+            for (int t = 1; t < COUNT && representative; t++)
+                if ((stabilizer & (1 << t)) != 0 && MOVE[t][move] < move) representative = false;
+            if (representative) moves[kept++] = move;
+        }
+        return kept;
+    }
+}
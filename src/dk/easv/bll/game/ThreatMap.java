@@ -0,0 +1,100 @@
+package dk.easv.bll.game;
+
+import dk.easv.bll.field.MicroboardPatterns;
+
+/**
+ * Keeps track of the cells that complete a line for each player, on every
+ * microboard and on the macroboard. It is owned by a {@link SearchState} and
+ * updated in O(1) on every make and unmake, so tactical questions such as
+ * "can I win a microboard here" or "does this move create two threats" become
+ * simple mask intersections.
+ *
+ * Micro masks use cell numbers ({@code localX * 3 + localY}), macro masks use
+ * microboard numbers ({@code microX * 3 + microY}).
+ */
+public class ThreatMap {
+
+    private final int[][] micro = new int[2][9];
+    private final int[] macro = new int[2];
+
+    void refresh(SearchState state) {
+        for (int m = 0; m < 9; m++)
+            updateMicro(state, m);
+        updateMacro(state);
+    }
+
+    void update(SearchState state, int m, boolean statusChanged) {
+        updateMicro(state, m);
+        if (statusChanged)
+            updateMacro(state);
+    }
+
+    private void updateMicro(SearchState state, int m) {
+        if (state.getMicroStatus(m) != MicroboardPatterns.OPEN) {
+            micro[0][m] = 0;
+            micro[1][m] = 0;
+        } else {
+            int index = state.getMicroIndex(m);
+            micro[0][m] = MicroboardPatterns.winningCells(0, index);
+            micro[1][m] = MicroboardPatterns.winningCells(1, index);
+        }
+    }
+
+    private void updateMacro(SearchState state) {
+        int tied = state.getTiedMicros();
+        int won0 = state.getWonMicros(0);
+        int won1 = state.getWonMicros(1);
+        macro[0] = MicroboardPatterns.lineCompletions(won0, won1 | tied);
+        macro[1] = MicroboardPatterns.lineCompletions(won1, won0 | tied);
+    }
+
+    /**
+     * @return bitmask of the cells in the microboard that win it for the player.
+     */
+    public int getMicroThreats(int player, int m) {
+        return micro[player][m];
+    }
+
+    /**
+     * @return bitmask of the microboards that would complete a macroboard line for the player.
+     */
+    public int getMacroThreats(int player) {
+        return macro[player];
+    }
+
+    /**
+     * Counts the moves that win a microboard for the player among the given microboards.
+     * @param player the player to count threats for
+     * @param micros bitmask of the microboards to look in, e.g. the playable ones
+     */
+    public int countMicroThreats(int player, int micros) {
+        int count = 0;
+        while (micros != 0) {
+            int m = Integer.numberOfTrailingZeros(micros);
+            micros &= micros - 1;
+            count += Integer.bitCount(micro[player][m]);
+        }
+        return count;
+    }
+
+    /**
+     * Finds a move that wins a microboard for the player among the given microboards.
+     * Moves that also win the game are preferred.
+     * @param player the player to look for
+     * @param micros bitmask of the microboards to look in, e.g. the playable ones
+     * @return the move, encoded as in {@link SearchState}, or -1 if there is none
+     */
+    public int findMicroWin(int player, int micros) {
+        int gameWinning = micros & macro[player];
+        int candidates = gameWinning != 0 ? gameWinning : micros;
+        while (candidates != 0) {
+            int m = Integer.numberOfTrailingZeros(candidates);
+            candidates &= candidates - 1;
+            if (micro[player][m] != 0)
+                return SearchState.moveOf(m, Integer.numberOfTrailingZeros(micro[player][m]));
+        }
+        if (gameWinning != 0)
+            return findMicroWin(player, micros & ~gameWinning);
+        return -1;
+    }
+}
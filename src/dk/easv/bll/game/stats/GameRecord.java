@@ -0,0 +1,118 @@
+package dk.easv.bll.game.stats;
+
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.move.IMove;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A finished game as kept in the game log: who played, under which time
+ * control, how it ended and every move, one byte each as encoded in
+ * {@link SearchState}.
+ *
+ * Bots are stored by id, see {@code GameLogWriter#getBotId(String)}.
+ */
+public class GameRecord {
+
+    public static final int MAX_MOVES = 81;
+
+    private final int bot0;
+    private final int bot1;
+    private final long seed;
+    private final long timestamp;
+    private final int timePerMove;
+    private final int timeBank;
+    private final int increment;
+    private final GameResult.Winner winner;
+    private final byte[] moves;
+
+    /**
+     * @param bot0 the id of the bot that moved first
+     * @param bot1 the id of the bot that moved second
+     * @param seed identifies the game within its run, e.g. its index
+     * @param timestamp when the game ended, in milliseconds since the epoch
+     * @param timePerMove the time per move in milliseconds
+     * @param timeBank the starting bank, or {@link IGameState#NO_CLOCK}
+     * @param increment the increment with a clock
+     * @param winner the result
+     * @param moves the moves, encoded as in {@link SearchState}
+     */
+    public GameRecord(int bot0, int bot1, long seed, long timestamp, int timePerMove, int timeBank, int increment,
+            GameResult.Winner winner, byte[] moves) {
+        if (moves.length > MAX_MOVES) throw new IllegalArgumentException("Too many moves: " + moves.length);
+        this.bot0 = bot0;
+        this.bot1 = bot1;
+        this.seed = seed;
+        this.timestamp = timestamp;
+        this.timePerMove = timePerMove;
+        this.timeBank = timeBank;
+        this.increment = increment;
+        this.winner = winner;
+        this.moves = moves;
+    }
+
+    /**
+     * Encodes moves one byte each.
+     */
+    public static byte[] encodeMoves(List<IMove> moves) {
+        byte[] encoded = new byte[moves.size()];
+        for (int i = 0; i < encoded.length; i++)
+            encoded[i] = (byte) SearchState.toMove(moves.get(i));
+        return encoded;
+    }
+
+    public int getBot0() {
+        return bot0;
+    }
+
+    public int getBot1() {
+        return bot1;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getTimePerMove() {
+        return timePerMove;
+    }
+
+    /**
+     * @return the starting bank, or {@link IGameState#NO_CLOCK} if the game had no clock.
+     */
+    public int getTimeBank() {
+        return timeBank;
+    }
+
+    public int getIncrement() {
+        return increment;
+    }
+
+    public GameResult.Winner getWinner() {
+        return winner;
+    }
+
+    public int getMoveCount() {
+        return moves.length;
+    }
+
+    /**
+     * @return the move, encoded as in {@link SearchState}.
+     */
+    public int getMove(int index) {
+        return moves[index];
+    }
+
+    public List<IMove> getMoves() {
+        List<IMove> list = new ArrayList<>(moves.length);
+        for (byte move : moves)
+            list.add(SearchState.toIMove(move));
+        return list;
+    }
+}
@@ -0,0 +1,55 @@
+package dk.easv.bll.game.stats;
+
+/**
+ * The results of all games between two players with the same colors.
+ */
+public class PairSummary {
+
+    private final String player0;
+    private final String player1;
+    private long wins0;
+    private long wins1;
+    private long ties;
+
+    public PairSummary(String player0, String player1) {
+        this.player0 = player0;
+        this.player1 = player1;
+    }
+
+    public void add(GameResult.Winner winner) {
+        switch (winner) {
+            case player0: wins0++; break;
+            case player1: wins1++; break;
+            default: ties++;
+        }
+    }
+
+    public String getPlayer0() {
+        return player0;
+    }
+
+    public String getPlayer1() {
+        return player1;
+    }
+
+    public long getWins0() {
+        return wins0;
+    }
+
+    public long getWins1() {
+        return wins1;
+    }
+
+    public long getTies() {
+        return ties;
+    }
+
+    public long getGames() {
+        return wins0 + wins1 + ties;
+    }
+
+    @Override
+    public String toString() {
+        return player0 + " vs " + player1 + " | w/w/t " + wins0 + "/" + wins1 + "/" + ties;
+    }
+}
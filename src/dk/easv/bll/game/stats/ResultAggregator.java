@@ -0,0 +1,112 @@
+package dk.easv.bll.game.stats;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the results of games played by many threads at once.
+ *
+ * Results are kept per ordered pair of bots, so per color, in
+ * {@link LongAdder}s: threads add to their own cells instead of fighting over
+ * one counter, and no result is ever lost. The totals are exact once the
+ * games are done, and close enough while they run to show the games and moves
+ * per second and the time left.
+ */
+public class ResultAggregator {
+
+    public static final int FIRST_WINS = 0;
+    public static final int SECOND_WINS = 1;
+    public static final int DRAWS = 2;
+
+    private final int bots;
+    private final long expectedGames;
+    private final LongAdder[] counts; // (first * bots + second) * 3 + outcome
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final long start = System.nanoTime();
+
+    /**
+     * @param bots the number of bots, which are then numbered from 0
+     * @param expectedGames the games that will be played, for the time left
+     */
+    public ResultAggregator(int bots, long expectedGames) {
+        this.bots = bots;
+        this.expectedGames = expectedGames;
+        counts = new LongAdder[bots * bots * 3];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = new LongAdder();
+    }
+
+    /**
+     * Adds a finished game.
+     * @param first the bot that moved first
+     * @param second the bot that moved second
+     * @param winner 0 if the first bot won, 1 if the second did, -1 for a draw
+     * @param moves the moves in the game
+     */
+    public void record(int first, int second, int winner, int moves) {
+        int outcome = winner == 0 ? FIRST_WINS : winner == 1 ? SECOND_WINS : DRAWS;
+        counts[(first * bots + second) * 3 + outcome].increment();
+        this.moves.add(moves);
+        games.increment();
+    }
+
+    /**
+     * @return the games between the two bots with the first one moving first that ended with the outcome.
+     */
+    public long get(int first, int second, int outcome) {
+        return counts[(first * bots + second) * 3 + outcome].sum();
+    }
+
+    /**
+     * @return the wins, draws and losses of a bot against an opponent, with either color.
+     */
+    public long[] getResult(int bot, int opponent) {
+        return new long[]{
+            get(bot, opponent, FIRST_WINS) + get(opponent, bot, SECOND_WINS),
+            get(bot, opponent, DRAWS) + get(opponent, bot, DRAWS),
+            get(bot, opponent, SECOND_WINS) + get(opponent, bot, FIRST_WINS)};
+    }
+
+    public long getGames() {
+        return games.sum();
+    }
+
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    public long getExpectedGames() {
+        return expectedGames;
+    }
+
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    public double getGamesPerSecond() {
+        return getGames() / getElapsedSeconds();
+    }
+
+    public double getMovesPerSecond() {
+        return getMoves() / getElapsedSeconds();
+    }
+
+    /**
+     * @return the estimated seconds until all expected games are played, or -1 before the first one is.
+     */
+    public long getEtaSeconds() {
+        long played = getGames();
+        if (played == 0) return -1;
+        return Math.round(Math.max(0, expectedGames - played) * getElapsedSeconds() / played);
+    }
+
+    /**
+     * @return e.g. "games 120/1000 (54.3/s) | moves 2100/s | ETA 0:16".
+     */
+    public String getProgress() {
+        long eta = getEtaSeconds();
+        return String.format("games %d/%d (%.1f/s) | moves %.0f/s | ETA %s",
+                getGames(), expectedGames, getGamesPerSecond(), getMovesPerSecond(),
+                eta < 0 ? "-" : String.format("%d:%02d", eta / 60, eta % 60));
+    }
+}
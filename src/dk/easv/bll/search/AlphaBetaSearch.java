@@ -0,0 +1,252 @@
+package dk.easv.bll.search;
+
+import dk.easv.bll.eval.IEvaluator;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.Symmetry;
+import dk.easv.bll.game.ThreatMap;
+
+/**
+ * Iterative deepening negamax alpha-beta search on a {@link SearchState}.
+ *
+ * Leaves are scored by an {@link IEvaluator}, finished games by their result.
+ * Moves that are equivalent by a symmetry of the position are searched once.
+ * The search stops at the time limit, the node limit, when {@link #stop()} is
+ * called or when the thread is interrupted, and returns the best move of the last completed iteration.
+ *
+ * Not thread-safe, use one instance per thread.
+ */
+public class AlphaBetaSearch {
+
+    public static final int WIN_SCORE = 1_000_000;
+    public static final int EVAL_SCALE = 10_000;
+
+    private static final int MAX_PLY = 82;
+    private static final int CHECK_INTERVAL = 1023;
+    // Keeps positions searched with and without early termination apart in a shared table
+    private static final long EARLY_TERMINATION_KEY = 0x9E3779B97F4A7C15L;
+
+    private final IEvaluator evaluator;
+    private TranspositionTable table;
+    private TimeManager timeManager;
+    private final int[][] moveBuffers = new int[MAX_PLY][81];
+    private final int[][] orderKeys = new int[MAX_PLY][81];
+
+    private long nodes;
+    private long nodeLimit = Long.MAX_VALUE;
+    private long deadline;
+    private volatile boolean stopRequested;
+    private boolean aborted;
+    private int completedDepth;
+    private int bestScore;
+    private int rootBest = -1; // Best root move of the running iteration, may be from an aborted one
+    private int completedBest = -1;
+
+    public AlphaBetaSearch(IEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Shares search results between iterations and positions, or null for none.
+     * The table may be shared with other searches running at the same time, also
+     * searches of other games.
+     */
+    public void setTranspositionTable(TranspositionTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Lets the time manager decide whether to start another iteration, or null.
+     * The time limit given to {@link #search} stays the hard limit.
+     */
+    public void setTimeManager(TimeManager timeManager) {
+        this.timeManager = timeManager;
+    }
+
+    /**
+     * Limits the number of nodes per search, e.g. for reproducible analysis.
+     */
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    /**
+     * Asks a running search to return as soon as possible.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Searches the position. The state is restored before the method returns.
+     * @param root the position to search
+     * @param timeLimitMs the time to spend
+     * @param maxDepth the deepest iteration to run
+     * @return the best move found, encoded as in {@link SearchState}, or -1 if there is no legal move
+     */
+    public int search(SearchState root, long timeLimitMs, int maxDepth) {
+        deadline = System.currentTimeMillis() + timeLimitMs;
+        stopRequested = false;
+        aborted = false;
+        nodes = 0;
+        completedDepth = 0;
+        bestScore = 0;
+        evaluator.reset(root);
+
+        int[] rootMoves = moveBuffers[0];
+        int count = Symmetry.uniqueMoves(root, rootMoves, root.legalMoves(rootMoves));
+        if (count == 0) return -1;
+        rootBest = rootMoves[0];
+        completedBest = rootBest;
+        if (count == 1) return completedBest;
+
+        for (int depth = 1; depth <= maxDepth && depth <= 81 - root.getMoveNumber(); depth++) {
+            if (depth > 1 && timeManager != null && !timeManager.shouldStartIteration(completedBest)) break;
+            int score = negamax(root, depth, -WIN_SCORE - 1, WIN_SCORE + 1, 0);
+            if (aborted) break;
+            completedBest = rootBest;
+            bestScore = score;
+            completedDepth = depth;
+            if (Math.abs(score) >= WIN_SCORE - MAX_PLY) break; // Forced result found
+        }
+        return completedBest;
+    }
+
+    private int negamax(SearchState state, int depth, int alpha, int beta, int ply) {
+        if ((++nodes & CHECK_INTERVAL) == 0 && outOfBudget()) {
+            aborted = true;
+        }
+        if (aborted) return 0;
+
+        if (state.isGameOver()) {
+            int result = state.getResult();
+            if (result == SearchState.TIE) return 0;
+            return result == state.getSideToMove() ? WIN_SCORE - ply : -(WIN_SCORE - ply);
+        }
+        if (depth == 0) {
+            return (int) Math.round((2 * evaluator.winProbability(state) - 1) * EVAL_SCALE);
+        }
+
+        int originalAlpha = alpha;
+        int ttMove = -1;
+        long hash = 0;
+        if (table != null) {
+            hash = state.isEarlyTermination() ? state.getHash() ^ EARLY_TERMINATION_KEY : state.getHash();
+            long entry = table.probe(hash);
+            if (entry != 0) {
+                ttMove = TranspositionTable.move(entry);
+                if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT
+                            || (bound == TranspositionTable.LOWER && score >= beta)
+                            || (bound == TranspositionTable.UPPER && score <= alpha))
+                        return score;
+                }
+            }
+        }
+
+        int[] moves = moveBuffers[ply];
+        int count = Symmetry.uniqueMoves(state, moves, state.legalMoves(moves));
+        orderMoves(state, moves, count, ply, ttMove);
+
+        int best = -WIN_SCORE - 1;
+        int bestMove = -1;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            state.make(move);
+            evaluator.moveMade(state, move);
+            int score = -negamax(state, depth - 1, -beta, -alpha, ply + 1);
+            state.unmake();
+            evaluator.moveUnmade(state, move);
+            if (aborted) return 0;
+
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (ply == 0) rootBest = move;
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) break;
+        }
+
+        if (table != null) {
+            int bound = best >= beta ? TranspositionTable.LOWER
+                    : best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            table.store(hash, bestMove, depth, bound, toTable(best, ply));
+        }
+        return best;
+    }
+
+    /**
+     * Win scores count plies from the root; in the table they count from the stored position.
+     */
+    private static int toTable(int score, int ply) {
+        if (score >= WIN_SCORE - MAX_PLY) return score + ply;
+        if (score <= -(WIN_SCORE - MAX_PLY)) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score >= WIN_SCORE - MAX_PLY) return score - ply;
+        if (score <= -(WIN_SCORE - MAX_PLY)) return score + ply;
+        return score;
+    }
+
+    private boolean outOfBudget() {
+        return stopRequested || nodes >= nodeLimit || System.currentTimeMillis() >= deadline
+                || Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Puts the best move from the last iteration first at the root, then the move from the
+     * transposition table, then moves that win a
+     * microboard, then moves that block one, and last moves that give the opponent a free choice.
+     */
+    private void orderMoves(SearchState state, int[] moves, int count, int ply, int ttMove) {
+        ThreatMap threats = state.getThreats();
+        int side = state.getSideToMove();
+        int closed = state.getClosedMicros();
+        int[] keys = orderKeys[ply];
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int m = SearchState.microOf(move);
+            int cellBit = 1 << SearchState.cellOf(move);
+            int key = 0;
+            if (ply == 0 && move == rootBest) key += 100;
+            if (move == ttMove) key += 50;
+            if ((threats.getMicroThreats(side, m) & cellBit) != 0) key += 20;
+            if ((threats.getMicroThreats(1 - side, m) & cellBit) != 0) key += 10;
+            if ((closed & cellBit) != 0) key -= 5;
+            keys[i] = key;
+        }
+        // Insertion sort, the lists are short
+        for (int i = 1; i < count; i++) {
+            int move = moves[i];
+            int key = keys[i];
+            int j = i - 1;
+            while (j >= 0 && keys[j] < key) {
+                moves[j + 1] = moves[j];
+                keys[j + 1] = keys[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            keys[j + 1] = key;
+        }
+    }
+
+    public long getNodes() {
+        return nodes;
+    }
+
+    public int getCompletedDepth() {
+        return completedDepth;
+    }
+
+    /**
+     * @return the score of the last completed iteration, from the side to move's point of view,
+     * which is the score of the move {@link #search} returned.
+     */
+    public int getBestScore() {
+        return bestScore;
+    }
+}
@@ -0,0 +1,292 @@
+package dk.easv.bll.search;
+
+import dk.easv.bll.eval.IEvaluator;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.Symmetry;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Monte Carlo Tree Search (UCT) on a {@link SearchState}.
+ *
+ * New leaves are valued by an {@link IEvaluator} when one is given, which is much
+ * cheaper than playing the game out, otherwise by a random playout. The tree is
+ * walked with make and unmake on a single state, nothing is cloned. Only one
+ * of a group of moves that are equivalent by symmetry gets a child node.
+ *
+ * Not thread-safe, use one instance per thread.
+ */
+public class MctsSearch {
+
+    private static final double DEFAULT_EXPLORATION = 1.4;
+    private static final int CHECK_INTERVAL = 63;
+
+    private final IEvaluator evaluator;
+    private final Random random;
+    private double exploration = DEFAULT_EXPLORATION;
+    private TimeManager timeManager;
+
+    private Node root;
+    private long rootHash;
+    private boolean keepTree; // Set after advance() and ponder()
+    private long iterations;
+    private volatile boolean stopRequested;
+    private final int[] playoutMoves = new int[81];
+
+    /**
+     * @param evaluator the leaf evaluator, or null for random playouts
+     */
+    public MctsSearch(IEvaluator evaluator) {
+        this(evaluator, new Random());
+    }
+
+    public MctsSearch(IEvaluator evaluator, Random random) {
+        this.evaluator = evaluator;
+        this.random = random;
+    }
+
+    public void setExploration(double exploration) {
+        this.exploration = exploration;
+    }
+
+    /**
+     * Lets the time manager stop searches early when the best move is clear, or null.
+     * The time limit given to {@link #search} stays the hard limit.
+     */
+    public void setTimeManager(TimeManager timeManager) {
+        this.timeManager = timeManager;
+    }
+
+    /**
+     * Asks a running search to return as soon as possible.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /**
+     * Searches the position with a fresh tree, or with the tree from {@link #ponder} or
+     * {@link #advance} if that is for the same position. The state is restored before the method returns.
+     * @param state the position to search
+     * @param timeLimitMs the time to spend
+     * @param iterationLimit the maximum number of iterations
+     * @return the most visited move, encoded as in {@link SearchState}, or -1 if there is no legal move
+     */
+    public int search(SearchState state, long timeLimitMs, long iterationLimit) {
+        stopRequested = false;
+        if (!keepTree) root = null;
+        keepTree = false;
+        return run(state, System.currentTimeMillis() + timeLimitMs, iterationLimit, null);
+    }
+
+    /**
+     * Searches the position until the flag is set, for thinking on the opponent's time.
+     * The tree is kept for the next search. The state is restored before the method returns.
+     * @param iterationLimit the maximum number of iterations, which bounds the size of the tree
+     */
+    public void ponder(SearchState state, long iterationLimit, AtomicBoolean stop) {
+        if (!keepTree) root = null;
+        run(state, Long.MAX_VALUE, iterationLimit, stop);
+        keepTree = true;
+    }
+
+    private int run(SearchState state, long deadline, long iterationLimit, AtomicBoolean stop) {
+        iterations = 0;
+        if (root == null || rootHash != state.getHash()) {
+            root = new Node(-1, null);
+            root.init(state);
+            rootHash = state.getHash();
+        }
+        if (root.untriedCount + root.childCount == 0) return -1;
+        if (root.untriedCount + root.childCount == 1 && stop == null)
+            return root.childCount == 1 ? root.children[0].move : root.untried[0];
+
+        if (evaluator != null) evaluator.reset(state);
+        while (iterations < iterationLimit && !stopRequested && (stop == null || !stop.get())) {
+            iterate(state);
+            iterations++;
+            if ((iterations & CHECK_INTERVAL) == 0) {
+                if (System.currentTimeMillis() >= deadline || Thread.currentThread().isInterrupted()) break;
+                if (stop == null && timeManager != null && timeToStop()) break;
+            }
+        }
+        return getBestMove();
+    }
+
+    private boolean timeToStop() {
+        Node best = null;
+        int second = 0;
+        for (int i = 0; i < root.childCount; i++) {
+            Node child = root.children[i];
+            if (best == null || child.visits > best.visits) {
+                if (best != null) second = best.visits;
+                best = child;
+            } else if (child.visits > second) {
+                second = child.visits;
+            }
+        }
+        // Untried moves may still turn out best
+        return best != null && root.untriedCount == 0
+                && timeManager.shouldStop(iterations, best.move, best.visits, second);
+    }
+
+    /**
+     * Moves the root of the tree to the position after the move, keeping what was
+     * searched below it. If the move was never expanded the next search starts fresh.
+     * @param move the move played from the root
+     * @param after the position after the move
+     */
+    public void advance(int move, SearchState after) {
+        Node next = null;
+        for (int i = 0; root != null && i < root.childCount; i++)
+            if (root.children[i].move == move) next = root.children[i];
+        root = next;
+        keepTree = next != null;
+        if (root != null) {
+            root.parent = null;
+            rootHash = after.getHash();
+        }
+    }
+
+    private void iterate(SearchState state) {
+        Node node = root;
+        int depth = 0;
+
+        // Selection
+        while (node.untriedCount == 0 && node.childCount > 0) {
+            node = select(node);
+            play(state, node.move);
+            depth++;
+        }
+
+        // Expansion
+        if (!state.isGameOver() && node.untriedCount > 0) {
+            int pick = random.nextInt(node.untriedCount);
+            int move = node.untried[pick];
+            node.untried[pick] = node.untried[--node.untriedCount];
+            Node child = new Node(move, node);
+            node.addChild(child);
+            play(state, move);
+            depth++;
+            child.init(state);
+            node = child;
+        }
+
+        // Value for the player who made the move into the leaf
+        double value;
+        int mover = 1 - state.getSideToMove();
+        if (state.isGameOver()) {
+            value = resultValue(state.getResult(), mover);
+        } else if (evaluator != null) {
+            value = 1 - evaluator.winProbability(state);
+        } else {
+            value = playout(state, mover);
+        }
+
+        // Backpropagation
+        while (node != null) {
+            node.visits++;
+            node.value += value;
+            value = 1 - value;
+            node = node.parent;
+        }
+
+        for (int i = 0; i < depth; i++) {
+            int move = state.getLastMove();
+            state.unmake();
+            if (evaluator != null) evaluator.moveUnmade(state, move);
+        }
+    }
+
+    private void play(SearchState state, int move) {
+        state.make(move);
+        if (evaluator != null) evaluator.moveMade(state, move);
+    }
+
+    private double playout(SearchState state, int player) {
+        int depth = 0;
+        while (!state.isGameOver()) {
+            int count = state.legalMoves(playoutMoves);
+            state.make(playoutMoves[random.nextInt(count)]);
+            depth++;
+        }
+        double value = resultValue(state.getResult(), player);
+        for (int i = 0; i < depth; i++)
+            state.unmake();
+        return value;
+    }
+
+    private static double resultValue(int result, int player) {
+        if (result == SearchState.TIE) return 0.5;
+        return result == player ? 1 : 0;
+    }
+
+    private Node select(Node node) {
+        double logVisits = Math.log(node.visits);
+        Node best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < node.childCount; i++) {
+            Node child = node.children[i];
+            double score = child.value / child.visits
+                    + exploration * Math.sqrt(logVisits / child.visits);
+            if (score > bestScore) {
+                bestScore = score;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the most visited root move of the last search, or -1.
+     */
+    public int getBestMove() {
+        Node best = null;
+        for (int i = 0; root != null && i < root.childCount; i++) {
+            if (best == null || root.children[i].visits > best.visits)
+                best = root.children[i];
+        }
+        return best == null ? -1 : best.move;
+    }
+
+    /**
+     * @return the visit count of every root move, indexed by move.
+     */
+    public int[] getRootVisits() {
+        int[] visits = new int[81];
+        for (int i = 0; root != null && i < root.childCount; i++)
+            visits[root.children[i].move] = root.children[i].visits;
+        return visits;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    private static class Node {
+        private final int move;
+        private Node parent;
+        private Node[] children;
+        private int childCount;
+        private int[] untried;
+        private int untriedCount;
+        private int visits;
+        private double value; // For the player who made the move into this node
+
+        Node(int move, Node parent) {
+            this.move = move;
+            this.parent = parent;
+        }
+
+        void init(SearchState state) {
+            untried = new int[81];
+            untriedCount = Symmetry.uniqueMoves(state, untried, state.legalMoves(untried));
+            children = new Node[untriedCount];
+        }
+
+        void addChild(Node child) {
+            children[childCount++] = child;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package dk.easv.bll.search;
+
+import dk.easv.bll.field.MicroboardPatterns;
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.SearchState;
+
+/**
+ * Decides how long a search bot thinks about a move.
+ *
+ * {@link #start} sets two budgets for the move: an optimum time, and a maximum
+ * that is only used when the search is unsure. With a clock the optimum is the
+ * bank spread over an estimate of the moves the bot still has to make, plus most
+ * of the increment. With a fixed time per move it is half of that time, since
+ * what is not used is simply saved.
+ *
+ * The search then asks whether to go on. It stops at the optimum unless the best
+ * move changed recently or the runner-up is close, and it stops before either
+ * limit once the best move can no longer be overtaken at the current speed.
+ *
+ * Not thread-safe, use one instance per bot.
+ */
+public class TimeManager {
+
+    private static final double SAFETY = 0.9; // Leave a margin for the engine
+    private static final int MIN_MOVES_LEFT = 4;
+    private static final double MAX_FACTOR = 3.0;
+    private static final double MAX_BANK_SHARE = 0.3;
+    private static final double INCREMENT_SHARE = 0.8;
+    private static final double CLOSE_RATIO = 0.8; // Runner-up within 80% of the best is close
+    private static final double RECENT_CHANGE = 0.25; // A change in the last quarter of the time is recent
+
+    private long start;
+    private long optimum;
+    private long maximum;
+    private int lastBest = -1;
+    private long lastChange;
+
+    /**
+     * Starts timing a move.
+     * @param state the state the bot was given
+     * @param position the same position
+     */
+    public void start(IGameState state, SearchState position) {
+        start = System.currentTimeMillis();
+        lastBest = -1;
+        lastChange = 0;
+        long bank = state.getTimeBank(position.getSideToMove());
+        if (bank == IGameState.NO_CLOCK) {
+            maximum = (long) (state.getTimePerMove() * SAFETY);
+            optimum = maximum / 2;
+        } else {
+            long usable = (long) (bank * SAFETY);
+            optimum = usable / estimateMovesLeft(position) + (long) (state.getIncrement() * INCREMENT_SHARE);
+            optimum = Math.min(optimum, usable);
+            maximum = Math.min((long) (optimum * MAX_FACTOR), Math.max(optimum, (long) (usable * MAX_BANK_SHARE)));
+        }
+    }
+
+    /**
+     * Estimates how many more moves the side to move will make. A game rarely lasts
+     * until every open microboard is full, so the count of empty cells is capped by a
+     * guess from the number of open microboards.
+     */
+    public static int estimateMovesLeft(SearchState position) {
+        int openMicros = 0;
+        int emptyCells = 0;
+        for (int m = 0; m < 9; m++) {
+            if ((position.getClosedMicros() & (1 << m)) == 0) {
+                openMicros++;
+                emptyCells += Integer.bitCount(MicroboardPatterns.emptyCells(position.getMicroIndex(m)));
+            }
+        }
+        int pliesLeft = Math.min(emptyCells, 6 * openMicros);
+        return Math.max(MIN_MOVES_LEFT, (pliesLeft + 1) / 2);
+    }
+
+    public long getOptimumMs() {
+        return optimum;
+    }
+
+    /**
+     * @return the hard limit for the search of this move.
+     */
+    public long getMaximumMs() {
+        return maximum;
+    }
+
+    public long getElapsedMs() {
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * For searches that count visits, like MCTS.
+     * @param iterations the iterations done so far
+     * @param bestMove the most visited move
+     * @param bestVisits its visits
+     * @param secondVisits the visits of the runner-up
+     * @return true if the search should stop
+     */
+    public boolean shouldStop(long iterations, int bestMove, long bestVisits, long secondVisits) {
+        long elapsed = getElapsedMs();
+        long limit = limit(elapsed, bestMove, secondVisits >= CLOSE_RATIO * bestVisits);
+        if (elapsed >= limit) return true;
+        if (elapsed == 0) return false;
+        // Not even all remaining iterations on the runner-up would catch up
+        double rate = (double) iterations / elapsed;
+        return bestVisits - secondVisits > rate * (limit - elapsed);
+    }
+
+    /**
+     * For iterative deepening searches, asked before each new iteration.
+     * @param bestMove the best move of the last completed iteration
+     * @return true if the next iteration should be started
+     */
+    public boolean shouldStartIteration(int bestMove) {
+        long elapsed = getElapsedMs();
+        // Each iteration takes a few times longer than the one before, so only start if there is time to finish
+        return elapsed < limit(elapsed, bestMove, false) / 2;
+    }
+
+    private long limit(long elapsed, int bestMove, boolean close) {
+        if (bestMove != lastBest) {
+            lastChange = lastBest == -1 ? 0 : elapsed; // The first best move is not a change
+            lastBest = bestMove;
+        }
+        boolean unstable = close || (elapsed > 0 && elapsed - lastChange < RECENT_CHANGE * elapsed);
+        return unstable ? maximum : optimum;
+    }
+}
@@ -0,0 +1,118 @@
+package dk.easv.bll.search;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Transposition table stored off the Java heap in a {@link MemorySegment}, so
+ * even gigabyte-sized tables add nothing for the garbage collector to scan.
+ *
+ * Each bucket holds two 16-byte entries: one kept for the deepest search, one
+ * always replaced. An entry is stored as {@code hash ^ data, data}, and a read
+ * only counts when the XOR of the two words gives back the hash. An entry torn
+ * by two threads writing at once therefore fails the check and reads as a
+ * miss, which lets any number of search threads share the table without locks.
+ *
+ * The data word packs the score (32 bits), the move (8 bits, {@link #NO_MOVE}
+ * if none), the depth (8 bits) and the bound type (2 bits).
+ */
+public class TranspositionTable {
+
+    public static final int EXACT = 1;
+    public static final int LOWER = 2; // Score is at least this, the search failed high
+    public static final int UPPER = 3; // Score is at most this, the search failed low
+    public static final int NO_MOVE = 0xFF;
+
+    private static final int ENTRY_SIZE = 16;
+    private static final int BUCKET_SIZE = 2 * ENTRY_SIZE;
+
+    private final MemorySegment table;
+    private final long bucketMask;
+
+    /**
+     * Allocates a table that is freed when it is no longer reachable.
+     * @param sizeMb the size in megabytes, rounded down to a power of two buckets
+     */
+    public TranspositionTable(int sizeMb) {
+        this(sizeMb, Arena.ofAuto());
+    }
+
+    /**
+     * Allocates a table in the given arena, for callers that free it themselves.
+     */
+    public TranspositionTable(int sizeMb, Arena arena) {
+        if (sizeMb < 1) throw new IllegalArgumentException("Size must be at least 1 MB");
+        long buckets = Long.highestOneBit(((long) sizeMb << 20) / BUCKET_SIZE);
+        table = arena.allocate(buckets * BUCKET_SIZE, 64);
+        bucketMask = buckets - 1;
+    }
+
+    /**
+     * Empties the table.
+     */
+    public void clear() {
+        table.fill((byte) 0);
+    }
+
+    /**
+     * @return the size of the table in bytes.
+     */
+    public long byteSize() {
+        return table.byteSize();
+    }
+
+    /**
+     * Looks a position up.
+     * @return the packed data word, read with the static accessors, or 0 if the position is not stored.
+     */
+    public long probe(long hash) {
+        long bucket = (hash & bucketMask) * BUCKET_SIZE;
+        for (long entry = bucket; entry < bucket + BUCKET_SIZE; entry += ENTRY_SIZE) {
+            long data = table.get(ValueLayout.JAVA_LONG, entry + 8);
+            if ((table.get(ValueLayout.JAVA_LONG, entry) ^ data) == hash && data != 0)
+                return data;
+        }
+        return 0;
+    }
+
+    /**
+     * Stores a search result. The first entry of the bucket is replaced when the new
+     * search is at least as deep, otherwise the second one is.
+     */
+    public void store(long hash, int move, int depth, int bound, int score) {
+        long data = (score & 0xFFFFFFFFL)
+                | (long) (move < 0 ? NO_MOVE : move) << 32
+                | (long) Math.min(depth, 0xFF) << 40
+                | (long) bound << 48;
+        long bucket = (hash & bucketMask) * BUCKET_SIZE;
+        long first = table.get(ValueLayout.JAVA_LONG, bucket + 8);
+        boolean sameKey = (table.get(ValueLayout.JAVA_LONG, bucket) ^ first) == hash;
+        long entry = sameKey || first == 0 || depth >= depth(first) ? bucket : bucket + ENTRY_SIZE;
+        table.set(ValueLayout.JAVA_LONG, entry, hash ^ data);
+        table.set(ValueLayout.JAVA_LONG, entry + 8, data);
+    }
+
+    public static int score(long data) {
+        return (int) data;
+    }
+
+    /**
+     * @return the stored move, or -1 if there is none.
+     */
+    public static int move(long data) {
+        int move = (int) (data >>> 32) & 0xFF;
+        return move == NO_MOVE ? -1 : move;
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 40) & 0xFF;
+    }
+
+    /**
+     * @return EXACT, LOWER or UPPER.
+     */
+    public static int bound(long data) {
+        return (int) (data >>> 48) & 0x3;
+    }
+}
@@ -0,0 +1,75 @@
+package dk.easv.bll.tournament;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+/**
+ * Plays a batch of games on a work-stealing pool.
+ *
+ * Every game is its own job. The batch is split in halves until single games
+ * are left, and idle threads steal the larger halves from busy ones, so a
+ * thread stuck with long games never holds up the rest: the batch takes about
+ * as long as the total work divided by the threads. Exactly the requested
+ * number of games is played, and which game gets which index does not depend
+ * on the number of threads. A game that throws does not stop the others.
+ */
+public class GameScheduler {
+
+    private final ForkJoinPool pool;
+
+    public GameScheduler(int threads) {
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Plays the games and returns when all are done.
+     * @param games the number of games
+     * @param game plays the game with the given index, from 0 to games - 1
+     * @throws RuntimeException the first exception thrown by a game, after all games are done
+     */
+    public void run(long games, LongConsumer game) {
+        if (games <= 0) return;
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        pool.invoke(new GameRange(0, games, game, failure));
+        if (failure.get() != null) throw failure.get();
+    }
+
+    /**
+     * Stops the threads once the running batches are done.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @SuppressWarnings("serial") // Never serialized, the consumer is not serializable
+    private static class GameRange extends RecursiveAction {
+        private final long from;
+        private final long to;
+        private final LongConsumer game;
+        private final AtomicReference<RuntimeException> failure;
+
+        GameRange(long from, long to, LongConsumer game, AtomicReference<RuntimeException> failure) {
+            this.from = from;
+            this.to = to;
+            this.game = game;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                try {
+                    game.accept(from);
+                } catch (RuntimeException ex) {
+                    // Kept for the caller, the other games still run
+                    failure.compareAndSet(null, ex);
+                }
+                return;
+            }
+            long middle = (from + to) >>> 1;
+            invokeAll(new GameRange(from, middle, game, failure), new GameRange(middle, to, game, failure));
+        }
+    }
+}
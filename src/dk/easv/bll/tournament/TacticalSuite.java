@@ -0,0 +1,330 @@
+package dk.easv.bll.tournament;
+
+import dk.easv.bll.bot.IBot;
+import dk.easv.bll.bot.ISearchInfo;
+import dk.easv.bll.game.GameState;
+import dk.easv.bll.game.MoveTimer;
+import dk.easv.bll.game.PositionNotation;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.move.IMove;
+import dk.easv.dal.BotFactory;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs bots on a suite of positions with known best moves.
+ *
+ * Every bot gets every position with a ladder of time limits, doubling from
+ * the shortest up to the longest, and a position counts as solved at the first
+ * limit where the bot plays one of its best moves. Each try is a fresh bot,
+ * so nothing is learned from earlier positions or tries. The positions are
+ * spread over a {@link GameScheduler}, and moves go through a
+ * {@link MoveTimer}, so a bot that misses its deadline fails the try.
+ *
+ * The report has the positions solved within each limit, the average time and
+ * nodes of the solving tries, and the positions solved per second of search,
+ * counting every try. Nodes are only known for bots that implement
+ * {@link ISearchInfo}, and only when a solving try searched any, a bot that
+ * solves everything before its search reports none.
+ *
+ * A suite file has one position per line, in {@link PositionNotation}, then
+ * {@code ;}-separated fields: {@code bm} with the best moves as (x,y), and an
+ * optional {@code id}. Empty lines and lines starting with # are skipped, e.g.
+ * <pre>
+ *   x8/9/9/9/9/9/9/9/9 0 o 1; bm (1,1) (2,2); id corner reply
+ * </pre>
+ *
+ * Usage: {@code TacticalSuite --suite=tactics.txt --bots=GringoBot,NTupleBot
+ * --time=1000 --min-time=125 --threads=4}.
+ */
+public class TacticalSuite {
+
+    private static final long GRACE_MS = 200;
+    private static final int MAX_LISTED = 10;
+
+    private final List<Class<? extends IBot>> bots;
+    private final String[] names;
+    private final List<Position> positions;
+    private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int timeLimit = 1000;
+    private int minTimeLimit = 125;
+
+    private final MoveTimer moveTimer = new MoveTimer();
+    private final AtomicLong errors = new AtomicLong();
+    private int[] limits;
+    // Per bot and position: the limit it was solved at or -1, and the time and nodes of that try
+    private int[] solvedAt;
+    private long[] solveNanos;
+    private long[] solveNodes;
+    private long[] searchNanos;
+    private long elapsedNanos;
+
+    public TacticalSuite(List<Class<? extends IBot>> bots, List<Position> positions) {
+        this.bots = new ArrayList<>(bots);
+        this.positions = new ArrayList<>(positions);
+        names = new String[bots.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = BotFactory.create(bots.get(i)).getBotName();
+    }
+
+    /**
+     * @param threads the positions searched at the same time; bots that search
+     * on several threads need fewer
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @param minTimeLimit the first time limit of the ladder, in milliseconds
+     * @param timeLimit the last time limit, in milliseconds
+     */
+    public void setTimeLimits(int minTimeLimit, int timeLimit) {
+        if (minTimeLimit <= 0 || minTimeLimit > timeLimit)
+            throw new IllegalArgumentException("Time limits must be positive and in order");
+        this.minTimeLimit = minTimeLimit;
+        this.timeLimit = timeLimit;
+    }
+
+    /**
+     * Reads a suite file.
+     * @throws IllegalArgumentException with the line number if a line is not a valid position
+     */
+    public static List<Position> load(Path path) throws IOException {
+        List<Position> suite = new ArrayList<>();
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            try {
+                suite.add(Position.parse(line, "line " + (i + 1)));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException(path + ":" + (i + 1) + ": " + ex.getMessage(), ex);
+            }
+        }
+        return suite;
+    }
+
+    /**
+     * Runs every bot on every position and returns when all are done.
+     */
+    public void run() {
+        List<Integer> ladder = new ArrayList<>();
+        for (long limit = minTimeLimit; limit < timeLimit; limit *= 2)
+            ladder.add((int) limit);
+        ladder.add(timeLimit);
+        limits = ladder.stream().mapToInt(Integer::intValue).toArray();
+
+        int tasks = bots.size() * positions.size();
+        solvedAt = new int[tasks];
+        solveNanos = new long[tasks];
+        solveNodes = new long[tasks];
+        searchNanos = new long[tasks];
+
+        long start = System.nanoTime();
+        GameScheduler scheduler = new GameScheduler(threads);
+        try {
+            scheduler.run(tasks, task -> {
+                try {
+                    solve((int) task);
+                } catch (RuntimeException | LinkageError ex) {
+                    // A broken bot fails the position but not the suite
+                    errors.incrementAndGet();
+                    Logger.getLogger(TacticalSuite.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            });
+        } finally {
+            scheduler.shutdown();
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void solve(int task) {
+        Class<? extends IBot> botClass = bots.get(task / positions.size());
+        Position position = positions.get(task % positions.size());
+        solvedAt[task] = -1;
+        for (int level = 0; level < limits.length; level++) {
+            GameState state = new GameState();
+            position.state.copyTo(state);
+            state.setTimePerMove(limits[level]);
+            IBot bot = BotFactory.create(botClass);
+
+            long tryStart = System.nanoTime();
+            IMove move = moveTimer.requestMove(bot, state, limits[level], GRACE_MS);
+            long nanos = System.nanoTime() - tryStart;
+            searchNanos[task] += nanos;
+            if (move != null && position.isBestMove(SearchState.toMove(move))) {
+                solvedAt[task] = level;
+                solveNanos[task] = nanos;
+                solveNodes[task] = bot instanceof ISearchInfo ? ((ISearchInfo) bot).getLastNodeCount() : -1;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Prints per bot the positions solved within each time limit, the average time and
+     * nodes to a solution, and the positions solved per second of search.
+     */
+    public void printReport(PrintStream out) {
+        int nameWidth = 4;
+        for (String name : names) nameWidth = Math.max(nameWidth, name.length());
+        StringBuilder header = new StringBuilder(String.format("%-" + nameWidth + "s", "Bot"));
+        for (int limit : limits) header.append(String.format(" %8s", "<=" + limit));
+        header.append(String.format(" %6s %9s %12s %10s %10s", "%", "Avg ms", "Avg nodes", "Search s", "Solved/s"));
+        out.println(header);
+
+        for (int b = 0; b < names.length; b++) {
+            int[] solved = new int[limits.length];
+            long nanos = 0;
+            long nodes = 0;
+            boolean hasNodes = true;
+            boolean searched = false;
+            long search = 0;
+            for (int p = 0; p < positions.size(); p++) {
+                int task = b * positions.size() + p;
+                search += searchNanos[task];
+                if (solvedAt[task] < 0) continue;
+                for (int level = solvedAt[task]; level < limits.length; level++)
+                    solved[level]++;
+                nanos += solveNanos[task];
+                nodes += solveNodes[task];
+                hasNodes &= solveNodes[task] >= 0;
+                searched |= solveNodes[task] > 0;
+            }
+            int total = solved[limits.length - 1];
+            StringBuilder row = new StringBuilder(String.format("%-" + nameWidth + "s", names[b]));
+            for (int count : solved) row.append(String.format(" %8d", count));
+            row.append(String.format(" %6.1f", positions.isEmpty() ? 0 : 100.0 * total / positions.size()));
+            row.append(total == 0 ? String.format(" %9s", "-") : String.format(" %9.0f", nanos / 1e6 / total));
+            row.append(total == 0 || !hasNodes || !searched ? String.format(" %12s", "-") : String.format(" %12.0f", (double) nodes / total));
+            row.append(String.format(" %10.1f %10.2f", search / 1e9, search == 0 ? 0 : total * 1e9 / search));
+            out.println(row);
+        }
+        for (int b = 0; b < names.length; b++) {
+            List<String> unsolved = new ArrayList<>();
+            for (int p = 0; p < positions.size(); p++) {
+                if (solvedAt[b * positions.size() + p] < 0) unsolved.add(positions.get(p).getId());
+            }
+            if (unsolved.isEmpty()) continue;
+            String more = unsolved.size() > MAX_LISTED ? ", ..." : "";
+            out.println("Unsolved by " + names[b] + ": "
+                    + String.join(", ", unsolved.subList(0, Math.min(MAX_LISTED, unsolved.size()))) + more);
+        }
+        out.printf("%d positions, %d bots in %.1f s | errors %d | %s%n", positions.size(), names.length,
+                elapsedNanos / 1e9, errors.get(), moveTimer);
+    }
+
+    /**
+     * A position of the suite with its best moves.
+     */
+    public static class Position {
+        private final String id;
+        private final SearchState state;
+        private final int[] bestMoves;
+
+        public Position(String id, SearchState state, int[] bestMoves) {
+            this.id = id;
+            this.state = state;
+            this.bestMoves = bestMoves;
+        }
+
+        /**
+         * Reads a line of a suite file.
+         * @param defaultId the id if the line has none
+         */
+        public static Position parse(String line, String defaultId) {
+            String[] fields = line.split(";");
+            SearchState state = PositionNotation.parse(fields[0].trim());
+            String id = defaultId;
+            int[] bestMoves = null;
+            for (int i = 1; i < fields.length; i++) {
+                String field = fields[i].trim();
+                if (field.startsWith("id ")) {
+                    id = field.substring(3).trim();
+                } else if (field.startsWith("bm ")) {
+                    String[] moves = field.substring(3).trim().split("\\s+");
+                    bestMoves = new int[moves.length];
+                    for (int m = 0; m < moves.length; m++)
+                        bestMoves[m] = parseMove(moves[m], state);
+                } else if (!field.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown field " + field);
+                }
+            }
+            if (bestMoves == null) throw new IllegalArgumentException("No best moves");
+            return new Position(id, state, bestMoves);
+        }
+
+        private static int parseMove(String text, SearchState state) {
+            String[] xy = text.replaceAll("[()]", "").split(",");
+            if (xy.length != 2) throw new IllegalArgumentException("Bad move " + text);
+            int move = Integer.parseInt(xy[0].trim()) * 9 + Integer.parseInt(xy[1].trim());
+            int[] legal = new int[81];
+            int count = state.legalMoves(legal);
+            for (int i = 0; i < count; i++) {
+                if (legal[i] == move) return move;
+            }
+            throw new IllegalArgumentException("Best move " + text + " is not legal");
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public SearchState getState() {
+            return state;
+        }
+
+        public boolean isBestMove(int move) {
+            for (int best : bestMoves) {
+                if (best == move) return true;
+            }
+            return false;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Class<? extends IBot>> bots = new ArrayList<>();
+        Path suite = null;
+        Integer threads = null;
+        int time = 1000;
+        Integer minTime = null;
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (option[0]) {
+                case "suite": suite = Paths.get(option[1]); break;
+                case "bots":
+                    if (option[1].equals("all")) {
+                        bots.addAll(BotFactory.findBotClasses());
+                    } else {
+                        for (String name : option[1].split(","))
+                            bots.add(BotFactory.findBotClass(name.trim()));
+                    }
+                    break;
+                case "threads": threads = Integer.parseInt(option[1]); break;
+                case "time": time = Integer.parseInt(option[1]); break;
+                case "min-time": minTime = Integer.parseInt(option[1]); break;
+                default: throw new IllegalArgumentException("Unknown option --" + option[0]);
+            }
+        }
+        if (suite == null) throw new IllegalArgumentException("Missing --suite=file");
+        if (bots.isEmpty()) throw new IllegalArgumentException("Missing --bots=name,name");
+
+        TacticalSuite runner = new TacticalSuite(bots, load(suite));
+        if (threads != null) runner.setThreads(threads);
+        runner.setTimeLimits(minTime != null ? minTime : Math.max(1, time / 8), time);
+        runner.run();
+        runner.printReport(System.out);
+    }
+}
@@ -0,0 +1,325 @@
+package dk.easv.bll.tournament;
+
+import dk.easv.bll.book.BookLearner;
+import dk.easv.bll.bot.IBot;
+import dk.easv.bll.game.GameManager;
+import dk.easv.bll.game.GameState;
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.MoveTimer;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.stats.GameRecord;
+import dk.easv.bll.game.stats.GameResult;
+import dk.easv.bll.game.stats.ResultAggregator;
+import dk.easv.dal.BotFactory;
+import dk.easv.dal.GameLogWriter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless tournament between bots, for running on servers without a display.
+ *
+ * Every pairing of the schedule plays the same number of games with colors
+ * alternating, on a {@link GameScheduler}. A round robin pairs every bot with
+ * every other one, a gauntlet pairs the first bot with each of the others.
+ * A bot that plays an illegal move or misses its deadline loses the game; a
+ * game in which a bot throws is not counted.
+ * At the end a crosstable with wins, draws and losses is printed.
+ *
+ * Usage: {@code Tournament --bots=GringoBot,NTupleBot,RandomBot --schedule=round-robin
+ * --games=100 --threads=8 --time=100}, or {@code --bots=all} for every bot in
+ * the bot package, {@code --bank=5000 --increment=50} for a chess clock,
+ * {@code --early-termination=true} to end dead microboards and drawn games early,
+ * {@code --log=games} to keep the games in a game log and
+ * {@code --learn=weights/book-learned.bin} to feed them to a {@link BookLearner}.
+ */
+public class Tournament {
+
+    public enum Schedule {
+        RoundRobin,
+        Gauntlet
+    }
+
+    private static final int REPORT_SECONDS = 10;
+    private static final int WIN = 0;
+    private static final int DRAW = 1;
+    private static final int LOSS = 2;
+
+    private final List<Class<? extends IBot>> bots;
+    private final String[] names;
+    private Schedule schedule = Schedule.RoundRobin;
+    private int gamesPerPair = 100;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int timePerMove = 100;
+    private long timeBank = IGameState.NO_CLOCK;
+    private int increment;
+    private boolean earlyTermination;
+
+    private final MoveTimer moveTimer = new MoveTimer();
+    private ResultAggregator results;
+    private GameLogWriter log;
+    private int[] logIds;
+    private BookLearner learner;
+    private final AtomicLong forfeits = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private long elapsedNanos;
+
+    public Tournament(List<Class<? extends IBot>> bots) {
+        if (bots.size() < 2) throw new IllegalArgumentException("A tournament needs at least two bots");
+        this.bots = new ArrayList<>(bots);
+        names = new String[bots.size()];
+        for (int i = 0; i < names.length; i++)
+            names[i] = BotFactory.create(bots.get(i)).getBotName();
+    }
+
+    public void setSchedule(Schedule schedule) {
+        this.schedule = schedule;
+    }
+
+    /**
+     * @param gamesPerPair the games each pairing plays, half of them with each bot first
+     */
+    public void setGamesPerPair(int gamesPerPair) {
+        this.gamesPerPair = gamesPerPair;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setTimePerMove(int timePerMove) {
+        this.timePerMove = timePerMove;
+    }
+
+    /**
+     * Plays with a chess clock instead of a fixed time per move.
+     */
+    public void setClock(long timeBank, int increment) {
+        this.timeBank = timeBank;
+        this.increment = increment;
+    }
+
+    /**
+     * Plays by the early termination rules, see {@link GameManager#setEarlyTermination(boolean)}.
+     */
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
+
+    /**
+     * @param log a game log to append every game to, or null
+     */
+    public void setLog(GameLogWriter log) {
+        this.log = log;
+    }
+
+    /**
+     * @param learner a book to feed the games that ended on the board into, or null
+     */
+    public void setLearner(BookLearner learner) {
+        this.learner = learner;
+    }
+
+    /**
+     * @return the pairings of the schedule, as pairs of bot indices.
+     */
+    List<int[]> getPairings() {
+        List<int[]> pairings = new ArrayList<>();
+        int n = bots.size();
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n; b++) {
+                if (schedule == Schedule.Gauntlet && a != 0) continue;
+                pairings.add(new int[]{a, b});
+            }
+        }
+        return pairings;
+    }
+
+    /**
+     * Plays all games and returns when they are finished.
+     */
+    public void run() throws IOException {
+        if (log != null) {
+            logIds = new int[names.length];
+            for (int i = 0; i < names.length; i++)
+                logIds[i] = log.getBotId(names[i]);
+        }
+        List<int[]> pairings = getPairings();
+        long totalGames = (long) pairings.size() * gamesPerPair;
+        results = new ResultAggregator(bots.size(), totalGames);
+
+        long start = System.nanoTime();
+        GameScheduler scheduler = new GameScheduler(threads);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tournament-report");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(results.getProgress() + " | " + moveTimer),
+                REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+        try {
+            scheduler.run(totalGames, game -> {
+                int[] pairing = pairings.get((int) (game / gamesPerPair));
+                // Alternate colors so both bots play both sides
+                boolean swap = (game % gamesPerPair & 1) == 1;
+                try {
+                    playGame(game, swap ? pairing[1] : pairing[0], swap ? pairing[0] : pairing[1]);
+                } catch (RuntimeException | LinkageError ex) {
+                    // A broken bot, e.g. one missing a library, costs the game but not the tournament
+                    errors.incrementAndGet();
+                    Logger.getLogger(Tournament.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            });
+        } finally {
+            scheduler.shutdown();
+            reporter.shutdownNow();
+            if (log != null) log.flush();
+            if (learner != null) learner.flush();
+        }
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    private void playGame(long game, int first, int second) {
+        GameState state = new GameState();
+        state.setTimePerMove(timePerMove);
+        GameManager manager = new GameManager(state, BotFactory.create(bots.get(first)), BotFactory.create(bots.get(second)));
+        manager.setMoveTimer(moveTimer);
+        manager.setTimeoutPolicy(GameManager.TimeoutPolicy.Forfeit);
+        manager.setEarlyTermination(earlyTermination);
+        if (timeBank != IGameState.NO_CLOCK) manager.setClock(timeBank, increment);
+
+        int winner = -1;
+        while (manager.getGameOver() == GameManager.GameOverState.Active) {
+            if (!manager.updateGame()) {
+                // Illegal move, the player to move forfeits
+                winner = 1 - manager.getCurrentPlayer();
+                forfeits.incrementAndGet();
+                break;
+            }
+        }
+        boolean forfeited = winner != -1 || manager.getTimeouts(0) + manager.getTimeouts(1) > 0;
+        if (winner == -1) winner = manager.getWinner();
+        results.record(first, second, winner, manager.getMoveHistory().size());
+        if (learner != null && !forfeited)
+            learner.addGame(manager.getMoveHistory(), winner == -1 ? SearchState.TIE : winner);
+        if (log != null) {
+            try {
+                log.append(new GameRecord(logIds[first], logIds[second], game, System.currentTimeMillis(),
+                        timePerMove, (int) timeBank, increment,
+                        winner == -1 ? GameResult.Winner.tie : GameResult.Winner.values()[winner],
+                        GameRecord.encodeMoves(manager.getMoveHistory())));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * @return the results by pairing and color, also while the tournament runs.
+     */
+    public ResultAggregator getResults() {
+        return results;
+    }
+
+    /**
+     * Prints the crosstable, with each cell as wins-draws-losses of the row bot,
+     * and the score with a draw counting half.
+     */
+    public void printCrosstable(PrintStream out) {
+        int n = bots.size();
+        int nameWidth = 4;
+        for (String name : names) nameWidth = Math.max(nameWidth, name.length());
+        int cellWidth = String.valueOf(gamesPerPair).length() * 3 + 4;
+
+        StringBuilder header = new StringBuilder(String.format("%3s %-" + nameWidth + "s", "", "Bot"));
+        for (int b = 0; b < n; b++) header.append(String.format(" %" + cellWidth + "d", b + 1));
+        header.append(String.format(" %8s %6s", "Score", "%"));
+        out.println(header);
+
+        for (int a = 0; a < n; a++) {
+            StringBuilder row = new StringBuilder(String.format("%3d %-" + nameWidth + "s", a + 1, names[a]));
+            long games = 0;
+            double score = 0;
+            for (int b = 0; b < n; b++) {
+                long[] r = results.getResult(a, b);
+                long played = r[WIN] + r[DRAW] + r[LOSS];
+                String cell = a == b || played == 0 ? "-" : r[WIN] + "-" + r[DRAW] + "-" + r[LOSS];
+                row.append(String.format(" %" + cellWidth + "s", cell));
+                games += played;
+                score += r[WIN] + r[DRAW] / 2.0;
+            }
+            row.append(String.format(" %8.1f %6.1f", score, games == 0 ? 0 : 100 * score / games));
+            out.println(row);
+        }
+
+        double seconds = elapsedNanos / 1e9;
+        out.printf("%d games, %d moves in %.1f s (%.1f games/s, %.0f moves/s) | forfeits %d | errors %d | %s%n",
+                results.getGames(), results.getMoves(), seconds, results.getGames() / seconds,
+                results.getMoves() / seconds, forfeits.get(), errors.get(), moveTimer);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Class<? extends IBot>> bots = new ArrayList<>();
+        GameLogWriter log = null;
+        Path learn = null;
+        long bank = IGameState.NO_CLOCK;
+        int increment = 0;
+        List<String[]> options = new ArrayList<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (option[0]) {
+                case "bots":
+                    if (option[1].equals("all")) {
+                        bots.addAll(BotFactory.findBotClasses());
+                    } else {
+                        for (String name : option[1].split(","))
+                            bots.add(BotFactory.findBotClass(name.trim()));
+                    }
+                    break;
+                case "log": log = GameLogWriter.open(Paths.get(option[1])); break;
+                case "learn": learn = Paths.get(option[1]); break;
+                case "bank": bank = Long.parseLong(option[1]); break;
+                case "increment": increment = Integer.parseInt(option[1]); break;
+                default: options.add(option);
+            }
+        }
+        Tournament tournament = new Tournament(bots);
+        for (String[] option : options) {
+            switch (option[0]) {
+                case "schedule":
+                    switch (option[1]) {
+                        case "round-robin": tournament.setSchedule(Schedule.RoundRobin); break;
+                        case "gauntlet": tournament.setSchedule(Schedule.Gauntlet); break;
+                        default: throw new IllegalArgumentException("Unknown schedule " + option[1]);
+                    }
+                    break;
+                case "games": tournament.setGamesPerPair(Integer.parseInt(option[1])); break;
+                case "threads": tournament.setThreads(Integer.parseInt(option[1])); break;
+                case "time": tournament.setTimePerMove(Integer.parseInt(option[1])); break;
+                case "early-termination": tournament.setEarlyTermination(Boolean.parseBoolean(option[1])); break;
+                default: throw new IllegalArgumentException("Unknown option --" + option[0]);
+            }
+        }
+        if (bank != IGameState.NO_CLOCK) tournament.setClock(bank, increment);
+        tournament.setLog(log);
+        if (learn != null) tournament.setLearner(BookLearner.open(learn));
+        try {
+            tournament.run();
+        } finally {
+            if (log != null) log.close();
+        }
+        tournament.printCrosstable(System.out);
+    }
+}
@@ -0,0 +1,50 @@
+package dk.easv.bll.training;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free set of 64-bit hashes, used to skip positions that have
+ * already been seen. It takes 8 bytes per slot and never grows; when a probe run
+ * finds no free slot the key is reported as new, so a full table only lets some
+ * duplicates through.
+ */
+public class ConcurrentLongSet {
+
+    private static final int MAX_PROBES = 64;
+
+    private final AtomicLongArray table;
+    private final int mask;
+
+    /**
+     * @param capacityBits the table holds 2^capacityBits slots
+     */
+    public ConcurrentLongSet(int capacityBits) {
+        table = new AtomicLongArray(1 << capacityBits);
+        mask = (1 << capacityBits) - 1;
+    }
+
+    /**
+     * @return true if the key was not in the set before.
+     */
+    public boolean add(long key) {
+        if (key == 0) key = 1; // 0 marks a free slot
+        int slot = (int) (mix(key) & mask);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            long current = table.get(slot);
+            if (current == key) return false;
+            if (current == 0) {
+                if (table.compareAndSet(slot, 0, key)) return true;
+                if (table.get(slot) == key) return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return true;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return key;
+    }
+}
@@ -0,0 +1,111 @@
+package dk.easv.bll.training;
+
+import dk.easv.bll.game.SearchState;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One labeled training position, as written by the {@link SelfPlayGenerator}.
+ *
+ * Binary layout, little-endian:
+ * <pre>
+ *   short[9]  microboard pattern indices (see MicroboardPatterns)
+ *   byte      active microboard + 1, 0 when the side to move may play anywhere
+ *   byte      side to move
+ *   byte      move number
+ *   byte      outcome: 0 = player 0 won, 1 = player 1 won, 2 = tie
+ *   byte      flags, bit 0 set when visit counts follow
+ *   char[81]  optional root visit counts per move (x * 9 + y), saturated at 65535
+ * </pre>
+ */
+public class PositionRecord {
+
+    public static final int BASE_SIZE = 9 * 2 + 5;
+    public static final int VISITS_SIZE = 81 * 2;
+    public static final int MAX_SIZE = BASE_SIZE + VISITS_SIZE;
+
+    private static final int FLAG_VISITS = 1;
+
+    private final int[] micro = new int[9];
+    private int activeMicro;
+    private int sideToMove;
+    private int moveNumber;
+    private int outcome;
+    private int[] visits;
+
+    /**
+     * Writes a position. The outcome is usually not known yet, use {@link #setOutcome(ByteBuffer, int, int)}
+     * once the game is over.
+     * @return the position of the record in the buffer
+     */
+    public static int write(ByteBuffer buffer, SearchState state, int outcome, int[] visits) {
+        int start = buffer.position();
+        for (int m = 0; m < 9; m++)
+            buffer.putShort((short) state.getMicroIndex(m));
+        buffer.put((byte) (state.getActiveMicro() + 1));
+        buffer.put((byte) state.getSideToMove());
+        buffer.put((byte) state.getMoveNumber());
+        buffer.put((byte) outcome);
+        buffer.put((byte) (visits != null ? FLAG_VISITS : 0));
+        if (visits != null) {
+            for (int move = 0; move < 81; move++)
+                buffer.putChar((char) Math.min(visits[move], Character.MAX_VALUE));
+        }
+        return start;
+    }
+
+    /**
+     * Fills in the outcome of a record written earlier.
+     */
+    public static void setOutcome(ByteBuffer buffer, int recordStart, int outcome) {
+        buffer.put(recordStart + 9 * 2 + 3, (byte) outcome);
+    }
+
+    /**
+     * Reads the next record from the buffer into this object, so one instance can be reused.
+     */
+    public PositionRecord read(ByteBuffer buffer) {
+        for (int m = 0; m < 9; m++)
+            micro[m] = Short.toUnsignedInt(buffer.getShort());
+        activeMicro = buffer.get() - 1;
+        sideToMove = buffer.get();
+        moveNumber = buffer.get();
+        outcome = buffer.get();
+        int flags = buffer.get();
+        if ((flags & FLAG_VISITS) != 0) {
+            if (visits == null) visits = new int[81];
+            for (int move = 0; move < 81; move++)
+                visits[move] = buffer.getChar();
+        } else {
+            visits = null;
+        }
+        return this;
+    }
+
+    public int getMicroIndex(int m) {
+        return micro[m];
+    }
+
+    public int getActiveMicro() {
+        return activeMicro;
+    }
+
+    public int getSideToMove() {
+        return sideToMove;
+    }
+
+    public int getMoveNumber() {
+        return moveNumber;
+    }
+
+    public int getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return the visit counts, or null if the record has none.
+     */
+    public int[] getVisits() {
+        return visits;
+    }
+}
@@ -0,0 +1,265 @@
+package dk.easv.bll.training;
+
+import dk.easv.bll.book.BookLearner;
+import dk.easv.bll.bot.IBot;
+import dk.easv.bll.bot.ISearchInfo;
+import dk.easv.bll.game.GameManager;
+import dk.easv.bll.game.GameState;
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.MoveTimer;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.Symmetry;
+import dk.easv.dal.BotFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless self-play data generator.
+ *
+ * Plays games between two bots on a fixed-size worker pool, samples positions
+ * from every game and writes them as {@link PositionRecord}s, labeled with the
+ * final outcome, into sharded append-only files. Positions are deduplicated by
+ * their canonical hash, so only one of a set of symmetric positions is kept.
+ * Bots that implement {@link ISearchInfo} also get their root visit counts
+ * stored. The games can also be fed to a {@link BookLearner}. Moves run with a
+ * hard deadline, a bot that misses it gets a random move played for it.
+ *
+ * Usage: {@code SelfPlayGenerator --bot1=NTupleMctsBot --bot2=RandomBot --games=100000
+ * --threads=8 --time=50 --sample=0.25 --out=selfplay --learn=weights/book-learned.bin},
+ * or {@code --bank=5000 --increment=50} for a chess clock instead of {@code --time};
+ * {@code --early-termination=true} ends dead microboards and drawn games early.
+ */
+public class SelfPlayGenerator {
+
+    private static final int DEDUP_BITS = 26; // 64M slots, 512 MB
+    private static final int REPORT_SECONDS = 10;
+
+    private final Class<? extends IBot> bot1;
+    private final Class<? extends IBot> bot2;
+    private final Path outDir;
+    private long games = 1000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int timePerMove = 100;
+    private long timeBank = IGameState.NO_CLOCK;
+    private int increment;
+    private double sampleRate = 1.0;
+    private int dedupBits = DEDUP_BITS;
+    private boolean earlyTermination;
+
+    private final AtomicLong nextGame = new AtomicLong();
+    private final AtomicLong gamesPlayed = new AtomicLong();
+    private final AtomicLong positionsWritten = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong illegalGames = new AtomicLong();
+    private ConcurrentLongSet seen;
+    private BookLearner learner;
+    private final MoveTimer moveTimer = new MoveTimer();
+
+    public SelfPlayGenerator(Class<? extends IBot> bot1, Class<? extends IBot> bot2, Path outDir) {
+        this.bot1 = bot1;
+        this.bot2 = bot2;
+        this.outDir = outDir;
+    }
+
+    public void setGames(long games) {
+        this.games = games;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setTimePerMove(int timePerMove) {
+        this.timePerMove = timePerMove;
+    }
+
+    /**
+     * Plays with a chess clock instead of a fixed time per move.
+     */
+    public void setClock(long timeBank, int increment) {
+        this.timeBank = timeBank;
+        this.increment = increment;
+    }
+
+    /**
+     * @param sampleRate the chance that a position is kept, between 0 and 1
+     */
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public void setDedupBits(int dedupBits) {
+        this.dedupBits = dedupBits;
+    }
+
+    /**
+     * Plays by the early termination rules, see {@link GameManager#setEarlyTermination(boolean)}.
+     */
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
+
+    /**
+     * @param learner a book to feed the finished games into, or null
+     */
+    public void setLearner(BookLearner learner) {
+        this.learner = learner;
+    }
+
+    /**
+     * Plays all games and returns when every record has been written.
+     */
+    public void run() throws IOException, InterruptedException {
+        seen = new ConcurrentLongSet(dedupBits);
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "selfplay-report");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> report(start), REPORT_SECONDS, REPORT_SECONDS, TimeUnit.SECONDS);
+
+        try (ShardedRecordWriter writer = new ShardedRecordWriter(outDir, "selfplay", threads)) {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                int shard = i;
+                workers.add(pool.submit(() -> {
+                    work(writer, shard);
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(SelfPlayGenerator.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            reporter.shutdownNow();
+        }
+        if (learner != null) learner.flush();
+        report(start);
+    }
+
+    private void work(ShardedRecordWriter writer, int shard) throws IOException {
+        ByteBuffer gameBuffer = ByteBuffer.allocate(81 * PositionRecord.MAX_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        int[] recordStarts = new int[81];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (long game = nextGame.getAndIncrement(); game < games; game = nextGame.getAndIncrement()) {
+            // Alternate colors so both bots play both sides
+            boolean swap = (game & 1) == 1;
+            IBot player0 = BotFactory.create(swap ? bot2 : bot1);
+            IBot player1 = BotFactory.create(swap ? bot1 : bot2);
+            GameState state = new GameState();
+            state.setTimePerMove(timePerMove);
+            GameManager manager = new GameManager(state, player0, player1);
+            manager.setMoveTimer(moveTimer);
+            manager.setEarlyTermination(earlyTermination);
+            if (timeBank != IGameState.NO_CLOCK) manager.setClock(timeBank, increment);
+
+            gameBuffer.clear();
+            int records = 0;
+            boolean legal = true;
+            while (manager.getGameOver() == GameManager.GameOverState.Active) {
+                SearchState position = null;
+                if (random.nextDouble() < sampleRate) {
+                    position = new SearchState(state, earlyTermination);
+                    if (!seen.add(Symmetry.canonicalHash(position))) {
+                        duplicates.incrementAndGet();
+                        position = null;
+                    }
+                }
+                IBot mover = manager.getCurrentPlayer() == 0 ? player0 : player1;
+                if (!manager.updateGame()) {
+                    legal = false;
+                    break;
+                }
+                if (position != null) {
+                    int[] visits = mover instanceof ISearchInfo ? ((ISearchInfo) mover).getLastVisits() : null;
+                    recordStarts[records++] = PositionRecord.write(gameBuffer, position, 0, visits);
+                }
+            }
+            if (!legal) {
+                illegalGames.incrementAndGet();
+                continue;
+            }
+
+            int outcome = manager.getGameOver() == GameManager.GameOverState.Tie ? 2 : 1 - manager.getCurrentPlayer();
+            for (int i = 0; i < records; i++)
+                PositionRecord.setOutcome(gameBuffer, recordStarts[i], outcome);
+            // A game decided by the clock says nothing about its opening
+            if (learner != null && manager.getTimeouts(0) + manager.getTimeouts(1) == 0)
+                learner.addGame(manager.getMoveHistory(), outcome);
+            gameBuffer.flip();
+            writer.write(shard, gameBuffer);
+            positionsWritten.addAndGet(records);
+            gamesPlayed.incrementAndGet();
+        }
+    }
+
+    private void report(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("games %d (%.1f/s) | positions %d (%.0f/s) | duplicates %d | illegal %d | %s%n",
+                gamesPlayed.get(), gamesPlayed.get() / seconds,
+                positionsWritten.get(), positionsWritten.get() / seconds,
+                duplicates.get(), illegalGames.get(), moveTimer);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String bot1 = "RandomBot";
+        String bot2 = "RandomBot";
+        long bank = IGameState.NO_CLOCK;
+        int increment = 0;
+        Path out = Paths.get("selfplay");
+        Path learn = null;
+        List<String[]> options = new ArrayList<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (option[0]) {
+                case "bot1": bot1 = option[1]; break;
+                case "bot2": bot2 = option[1]; break;
+                case "out": out = Paths.get(option[1]); break;
+                case "learn": learn = Paths.get(option[1]); break;
+                case "bank": bank = Long.parseLong(option[1]); break;
+                case "increment": increment = Integer.parseInt(option[1]); break;
+                default: options.add(option);
+            }
+        }
+        SelfPlayGenerator generator = new SelfPlayGenerator(BotFactory.findBotClass(bot1), BotFactory.findBotClass(bot2), out);
+        for (String[] option : options) {
+            switch (option[0]) {
+                case "games": generator.setGames(Long.parseLong(option[1])); break;
+                case "threads": generator.setThreads(Integer.parseInt(option[1])); break;
+                case "time": generator.setTimePerMove(Integer.parseInt(option[1])); break;
+                case "sample": generator.setSampleRate(Double.parseDouble(option[1])); break;
+                case "dedup-bits": generator.setDedupBits(Integer.parseInt(option[1])); break;
+                case "early-termination": generator.setEarlyTermination(Boolean.parseBoolean(option[1])); break;
+                default: throw new IllegalArgumentException("Unknown option --" + option[0]);
+            }
+        }
+        if (bank != IGameState.NO_CLOCK) generator.setClock(bank, increment);
+        if (learn != null) generator.setLearner(BookLearner.open(learn));
+        generator.run();
+    }
+}
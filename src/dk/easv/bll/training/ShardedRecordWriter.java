@@ -0,0 +1,100 @@
+package dk.easv.bll.training;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Appends binary records to a fixed number of shard files. Each shard has its own
+ * buffer and lock, so writers on different shards never wait for each other.
+ * Files are opened in append mode, so a new run adds to the existing data.
+ */
+public class ShardedRecordWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Shard[] shards;
+
+    public ShardedRecordWriter(Path directory, String prefix, int shardCount) throws IOException {
+        Files.createDirectories(directory);
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            Path file = directory.resolve(String.format("%s-%03d.bin", prefix, i));
+            shards[i] = new Shard(FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        }
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer to a shard.
+     */
+    public void write(int shard, ByteBuffer records) throws IOException {
+        shards[shard].write(records);
+    }
+
+    public void flush() throws IOException {
+        for (Shard shard : shards)
+            shard.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException error = null;
+        for (Shard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    private static class Shard {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Shard(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        synchronized void write(ByteBuffer records) throws IOException {
+            if (records.remaining() > buffer.remaining())
+                drain();
+            if (records.remaining() > buffer.remaining()) {
+                while (records.hasRemaining())
+                    channel.write(records);
+            } else {
+                buffer.put(records);
+            }
+        }
+
+        synchronized void flush() throws IOException {
+            drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        synchronized void close() throws IOException {
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package dk.easv.bll.training;
+
+import dk.easv.bll.bot.IBot;
+import dk.easv.bll.bot.LocalPrioritisedListBot;
+import dk.easv.bll.bot.RandomBot;
+import dk.easv.bll.eval.NTupleEvaluator;
+import dk.easv.bll.eval.NTupleNetwork;
+import dk.easv.bll.game.GameManager;
+import dk.easv.bll.game.GameState;
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.move.IMove;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Headless TD(lambda) trainer for the {@link NTupleNetwork}.
+ *
+ * Worker threads play the network against itself with the make/unmake API,
+ * choosing moves greedily by the value after the move (with some random
+ * exploration). After each game the lambda-returns are computed backwards and
+ * the weight changes go into a per-thread buffer, which is merged into the
+ * shared weight tables every few games. Workers read the shared weights
+ * without locking.
+ *
+ * Checkpoints are written in the format {@link NTupleNetwork#load(Path)} reads,
+ * by default to the file the n-tuple bots use. Every so often the current
+ * weights play {@link RandomBot} and {@link LocalPrioritisedListBot}, and the
+ * scores are printed and appended to a CSV learning curve next to the checkpoint.
+ *
+ * Usage: {@code TDTrainer --games=1000000 --threads=8 --alpha=0.01 --lambda=0.7
+ * --epsilon=0.1 --out=weights/ntuple.bin --resume=true}
+ */
+public class TDTrainer {
+
+    // Some exploration in the evaluation games, the reference bots are deterministic
+    private static final double EVALUATION_EPSILON = 0.05;
+
+    private final NTupleNetwork shared;
+    private final Path out;
+    private long games = 100_000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private double alpha = 0.01;
+    private double lambda = 0.7;
+    private double epsilon = 0.1;
+    private int mergeEvery = 16;
+    private long checkpointEvery = 10_000;
+    private long evaluateEvery = 10_000;
+    private int evaluationGames = 200;
+
+    private final AtomicLong nextGame = new AtomicLong();
+    private final AtomicLong gamesPlayed = new AtomicLong();
+    private final Object checkpointLock = new Object();
+    private long lastCheckpoint;
+    private long lastEvaluation;
+    private long start;
+
+    public TDTrainer(NTupleNetwork network, Path out) {
+        this.shared = network;
+        this.out = out;
+    }
+
+    public void setGames(long games) {
+        this.games = games;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public void setLambda(double lambda) {
+        this.lambda = lambda;
+    }
+
+    public void setEpsilon(double epsilon) {
+        this.epsilon = epsilon;
+    }
+
+    public void setMergeEvery(int mergeEvery) {
+        this.mergeEvery = mergeEvery;
+    }
+
+    public void setCheckpointEvery(long checkpointEvery) {
+        this.checkpointEvery = checkpointEvery;
+    }
+
+    public void setEvaluateEvery(long evaluateEvery) {
+        this.evaluateEvery = evaluateEvery;
+    }
+
+    public void setEvaluationGames(int evaluationGames) {
+        this.evaluationGames = evaluationGames;
+    }
+
+    /**
+     * Trains until all games are played and writes the final checkpoint.
+     */
+    public void run() throws IOException, InterruptedException {
+        start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                long seed = System.nanoTime() + i;
+                workers.add(pool.submit(() -> {
+                    new Worker(seed).run();
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(TDTrainer.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        checkpoint(gamesPlayed.get(), true);
+    }
+
+    private void checkpoint(long played, boolean force) throws IOException {
+        NTupleNetwork snapshot;
+        boolean evaluate;
+        synchronized (checkpointLock) {
+            boolean save = force || played - lastCheckpoint >= checkpointEvery;
+            evaluate = played - lastEvaluation >= evaluateEvery || (force && played != lastEvaluation);
+            if (!save && !evaluate) return;
+            if (save) lastCheckpoint = played;
+            if (evaluate) lastEvaluation = played;
+            synchronized (shared) {
+                snapshot = new NTupleNetwork(shared);
+            }
+            if (save) snapshot.save(out);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String line = String.format("games %d | %.1f games/s", played, played / seconds);
+        if (evaluate) {
+            double vsRandom = score(snapshot, RandomBot::new);
+            double vsPrio = score(snapshot, LocalPrioritisedListBot::new);
+            line += String.format(" | vs Random %.3f | vs LocalPrio %.3f", vsRandom, vsPrio);
+            appendCurve(played, seconds, vsRandom, vsPrio);
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * @return the score (win 1, tie 0.5) of the greedy network player against the bot, both colors.
+     */
+    private double score(NTupleNetwork network, Supplier<IBot> opponent) {
+        double points = 0;
+        for (int game = 0; game < evaluationGames; game++) {
+            boolean first = game % 2 == 0;
+            IBot greedy = new GreedyPlayer(network, new SplittableRandom(game));
+            IBot other = opponent.get();
+            GameState state = new GameState();
+            GameManager manager = first ? new GameManager(state, greedy, other) : new GameManager(state, other, greedy);
+            while (manager.getGameOver() == GameManager.GameOverState.Active) {
+                if (!manager.updateGame()) break;
+            }
+            if (manager.getGameOver() == GameManager.GameOverState.Tie) {
+                points += 0.5;
+            } else if (manager.getGameOver() == GameManager.GameOverState.Win) {
+                int winner = 1 - manager.getCurrentPlayer();
+                if (winner == (first ? 0 : 1)) points++;
+            }
+        }
+        return points / evaluationGames;
+    }
+
+    private void appendCurve(long played, double seconds, double vsRandom, double vsPrio) throws IOException {
+        Path curve = out.resolveSibling("learning-curve.csv");
+        if (curve.getParent() != null) Files.createDirectories(curve.getParent());
+        boolean header = !Files.exists(curve);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(curve,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (header) writer.println("games,seconds,vs_random,vs_local_prio");
+            writer.printf(Locale.ROOT, "%d,%.1f,%.4f,%.4f%n", played, seconds, vsRandom, vsPrio);
+        }
+    }
+
+    /**
+     * Picks the move with the best value afterwards, a random one with probability epsilon.
+     */
+    static int chooseMove(SearchState state, NTupleEvaluator evaluator, int[] moves, int count,
+                          double epsilon, SplittableRandom random) {
+        if (random.nextDouble() < epsilon)
+            return moves[random.nextInt(count)];
+        int mover = state.getSideToMove();
+        int best = moves[0];
+        double bestValue = -1;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            state.make(move);
+            evaluator.moveMade(state, move);
+            double value;
+            if (state.isGameOver()) {
+                int result = state.getResult();
+                value = result == SearchState.TIE ? 0.5 : result == mover ? 1 : 0;
+            } else {
+                value = 1 - evaluator.winProbability(state);
+            }
+            state.unmake();
+            evaluator.moveUnmade(state, move);
+            if (value > bestValue) {
+                bestValue = value;
+                best = move;
+            }
+        }
+        return best;
+    }
+
+    private class Worker {
+        private final SplittableRandom random;
+        private final NTupleEvaluator evaluator = new NTupleEvaluator(shared);
+        // Per-thread update buffer, merged into the shared weights every few games
+        private final float[] delta = new float[NTupleNetwork.FEATURE_COUNT];
+        private final int[] touched = new int[NTupleNetwork.FEATURE_COUNT];
+        private final boolean[] isTouched = new boolean[NTupleNetwork.FEATURE_COUNT];
+        private int touchedCount;
+
+        private final int[][] features = new int[82][NTupleNetwork.MAX_ACTIVE_FEATURES];
+        private final int[] featureCounts = new int[82];
+        private final double[] values = new double[82];
+        private final int[] moves = new int[81];
+
+        Worker(long seed) {
+            random = new SplittableRandom(seed);
+        }
+
+        void run() throws IOException {
+            int sinceMerge = 0;
+            while (nextGame.getAndIncrement() < games) {
+                playAndLearn();
+                if (++sinceMerge >= mergeEvery) {
+                    merge();
+                    sinceMerge = 0;
+                }
+                checkpoint(gamesPlayed.incrementAndGet(), false);
+            }
+            merge();
+        }
+
+        private void playAndLearn() {
+            SearchState state = new SearchState();
+            evaluator.reset(state);
+            int positions = 0;
+            while (!state.isGameOver()) {
+                featureCounts[positions] = NTupleNetwork.features(state, features[positions]);
+                values[positions] = NTupleNetwork.sigmoid(evaluator.value(state));
+                positions++;
+                int count = state.legalMoves(moves);
+                int move = chooseMove(state, evaluator, moves, count, epsilon, random);
+                state.make(move);
+                evaluator.moveMade(state, move);
+            }
+            int result = state.getResult();
+            double target = result == SearchState.TIE ? 0.5 : result == SearchState.WIN_0 ? 1 : 0;
+
+            // Lambda-returns, computed backwards from the final outcome
+            for (int t = positions - 1; t >= 0; t--) {
+                double v = values[t];
+                double gradient = alpha * (target - v) * v * (1 - v);
+                int[] active = features[t];
+                for (int i = 0; i < featureCounts[t]; i++)
+                    add(active[i], (float) gradient);
+                target = (1 - lambda) * v + lambda * target;
+            }
+        }
+
+        private void add(int feature, float value) {
+            if (!isTouched[feature]) {
+                isTouched[feature] = true;
+                touched[touchedCount++] = feature;
+            }
+            delta[feature] += value;
+        }
+
+        private void merge() {
+            synchronized (shared) {
+                for (int i = 0; i < touchedCount; i++) {
+                    int feature = touched[i];
+                    shared.addToWeight(feature, delta[feature]);
+                    delta[feature] = 0;
+                    isTouched[feature] = false;
+                }
+            }
+            touchedCount = 0;
+        }
+    }
+
+    /**
+     * The greedy network policy as a bot, for the learning curve games.
+     */
+    private static class GreedyPlayer implements IBot {
+        private final NTupleEvaluator evaluator;
+        private final SplittableRandom random;
+        private final int[] moves = new int[81];
+
+        GreedyPlayer(NTupleNetwork network, SplittableRandom random) {
+            this.evaluator = new NTupleEvaluator(network);
+            this.random = random;
+        }
+
+        @Override
+        public IMove doMove(IGameState gameState) {
+            SearchState state = new SearchState(gameState);
+            evaluator.reset(state);
+            int count = state.legalMoves(moves);
+            return SearchState.toIMove(chooseMove(state, evaluator, moves, count, EVALUATION_EPSILON, random));
+        }
+
+        @Override
+        public String getBotName() {
+            return "TD greedy";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path out = NTupleNetwork.DEFAULT_PATH;
+        boolean resume = false;
+        List<String[]> options = new ArrayList<>();
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (option[0]) {
+                case "out": out = Paths.get(option[1]); break;
+                case "resume": resume = Boolean.parseBoolean(option[1]); break;
+                default: options.add(option);
+            }
+        }
+        NTupleNetwork network = resume && Files.exists(out) ? NTupleNetwork.load(out) : new NTupleNetwork();
+        TDTrainer trainer = new TDTrainer(network, out);
+        for (String[] option : options) {
+            switch (option[0]) {
+                case "games": trainer.setGames(Long.parseLong(option[1])); break;
+                case "threads": trainer.setThreads(Integer.parseInt(option[1])); break;
+                case "alpha": trainer.setAlpha(Double.parseDouble(option[1])); break;
+                case "lambda": trainer.setLambda(Double.parseDouble(option[1])); break;
+                case "epsilon": trainer.setEpsilon(Double.parseDouble(option[1])); break;
+                case "merge": trainer.setMergeEvery(Integer.parseInt(option[1])); break;
+                case "checkpoint": trainer.setCheckpointEvery(Long.parseLong(option[1])); break;
+                case "eval-every": trainer.setEvaluateEvery(Long.parseLong(option[1])); break;
+                case "eval-games": trainer.setEvaluationGames(Integer.parseInt(option[1])); break;
+                default: throw new IllegalArgumentException("Unknown option --" + option[0]);
+            }
+        }
+        trainer.run();
+    }
+}
@@ -0,0 +1,66 @@
+package dk.easv.dal;
+
+import dk.easv.bll.bot.IBot;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates bots from class names, for the headless tools.
+ * Unlike {@link DynamicBotClassHandler} it does not touch JavaFX.
+ */
+public class BotFactory {
+
+    private static final String BOT_PACKAGE = "dk.easv.bll.bot.";
+    private static final Path BOT_SOURCES = Paths.get("src", "dk", "easv", "bll", "bot");
+
+    /**
+     * Finds a bot class by its simple name in the bot package, or by its full name.
+     * @param name e.g. "RandomBot" or "dk.easv.bll.bot.RandomBot"
+     */
+    public static Class<? extends IBot> findBotClass(String name) throws ClassNotFoundException {
+        String className = name.contains(".") ? name : BOT_PACKAGE + name;
+        Class<?> clazz = Class.forName(className);
+        if (!IBot.class.isAssignableFrom(clazz) || clazz.isInterface())
+            throw new ClassNotFoundException(className + " is not a bot");
+        return clazz.asSubclass(IBot.class);
+    }
+
+    /**
+     * Finds the bots the same way as {@link DynamicBotClassHandler}, from the source
+     * files in the bot package, but loads them from the class path.
+     * @return the bot classes, sorted by name; interfaces and other classes are skipped
+     */
+    public static List<Class<? extends IBot>> findBotClasses() throws IOException {
+        List<Class<? extends IBot>> bots = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(BOT_SOURCES, "*.java")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    bots.add(findBotClass(name.substring(0, name.length() - ".java".length())));
+                } catch (ClassNotFoundException ex) {
+                    // Not a bot, or not compiled
+                }
+            }
+        }
+        bots.sort((a, b) -> a.getName().compareTo(b.getName()));
+        return bots;
+    }
+
+    /**
+     * Creates a new bot instance. Bots keep state between moves, so every game needs its own.
+     */
+    public static IBot create(Class<? extends IBot> botClass) {
+        try {
+            return botClass.getDeclaredConstructor().newInstance();
+        } catch (InstantiationException | IllegalAccessException | NoSuchMethodException | InvocationTargetException ex) {
+            throw new IllegalArgumentException("Cannot create bot " + botClass.getName(), ex);
+        }
+    }
+}
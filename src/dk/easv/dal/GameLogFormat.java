@@ -0,0 +1,196 @@
+package dk.easv.dal;
+
+import dk.easv.bll.game.stats.GameRecord;
+import dk.easv.bll.game.stats.GameResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The file format of the game log, shared by {@link GameLogWriter} and
+ * {@link GameLogReader}.
+ *
+ * A log is a directory of numbered segment files, each with a sparse index
+ * file next to it, {@code bots.txt} with one bot name per line, where a bot's id
+ * is its line number from 0, and {@code writer.lock}, locked by the writer that
+ * has the log open. All numbers are little-endian.
+ *
+ * Segment: a header of magic, version and the number of the first game in the
+ * segment ({@link #HEADER_SIZE} bytes), then records of
+ * {@code byte moveCount, byte winner, short bot0, short bot1, long seed,
+ * long timestamp, int timePerMove, int timeBank, int increment,
+ * byte[moveCount] moves, int crc}, where the CRC-32 covers the rest of the
+ * record. A record whose CRC does not match ends the segment; that is how a
+ * write torn by a crash is found.
+ *
+ * Index: the offset in the segment of every {@link #INDEX_INTERVAL}th record
+ * as an int, starting with the first.
+ */
+final class GameLogFormat {
+
+    static final int MAGIC = 0x474F4C47; // "GLOG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int FIXED_SIZE = 38; // A record without its moves
+    static final int MOVES_OFFSET = 34;
+    static final int INDEX_INTERVAL = 1024;
+    static final int SEGMENT_SIZE = 64 << 20;
+    static final String BOTS_FILE = "bots.txt";
+    static final String LOCK_FILE = "writer.lock";
+
+    private GameLogFormat() {
+    }
+
+    static Path segmentPath(Path dir, int segment) {
+        return dir.resolve(String.format("games-%06d.log", segment));
+    }
+
+    static Path indexPath(Path dir, int segment) {
+        return dir.resolve(String.format("games-%06d.idx", segment));
+    }
+
+    /**
+     * @return the numbers of the segments in the directory, in order.
+     */
+    static int[] findSegments(Path dir) throws IOException {
+        List<Integer> segments = new ArrayList<>();
+        if (Files.isDirectory(dir)) {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "games-*.log")) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    segments.add(Integer.parseInt(name.substring("games-".length(), name.length() - ".log".length())));
+                }
+            }
+        }
+        int[] numbers = segments.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(numbers);
+        return numbers;
+    }
+
+    static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    static int[] readIndex(Path path) throws IOException {
+        if (!Files.exists(path)) return new int[0];
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+        int[] index = new int[buffer.remaining() / 4];
+        buffer.asIntBuffer().get(index);
+        return index;
+    }
+
+    static boolean hasHeader(ByteBuffer segment) {
+        return segment.limit() >= HEADER_SIZE && segment.getInt(0) == MAGIC && segment.getInt(4) == VERSION;
+    }
+
+    static long firstGame(ByteBuffer segment) {
+        return segment.getLong(8);
+    }
+
+    static void writeHeader(ByteBuffer out, long firstGame) {
+        out.putInt(MAGIC).putInt(VERSION).putLong(firstGame);
+    }
+
+    static int recordSize(ByteBuffer segment, int offset) {
+        return FIXED_SIZE + (segment.get(offset) & 0xFF);
+    }
+
+    static int recordSize(GameRecord record) {
+        return FIXED_SIZE + record.getMoveCount();
+    }
+
+    /**
+     * @return true if a whole record with a matching checksum starts at the offset.
+     */
+    static boolean isValid(ByteBuffer segment, int offset) {
+        if (offset + FIXED_SIZE > segment.limit()) return false;
+        int moves = segment.get(offset) & 0xFF;
+        if (moves > GameRecord.MAX_MOVES || (segment.get(offset + 1) & 0xFF) >= GameResult.Winner.values().length)
+            return false;
+        int size = FIXED_SIZE + moves;
+        if (offset + size > segment.limit()) return false;
+        return segment.getInt(offset + size - 4) == crc(segment, offset, size - 4);
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(offset + length).position(offset));
+        return (int) crc.getValue();
+    }
+
+    static void write(ByteBuffer out, GameRecord record) {
+        int start = out.position();
+        out.put((byte) record.getMoveCount())
+                .put((byte) record.getWinner().ordinal())
+                .putShort((short) record.getBot0())
+                .putShort((short) record.getBot1())
+                .putLong(record.getSeed())
+                .putLong(record.getTimestamp())
+                .putInt(record.getTimePerMove())
+                .putInt(record.getTimeBank())
+                .putInt(record.getIncrement());
+        for (int i = 0; i < record.getMoveCount(); i++)
+            out.put((byte) record.getMove(i));
+        out.putInt(crc(out, start, out.position() - start));
+    }
+
+    static GameRecord read(ByteBuffer segment, int offset) {
+        byte[] moves = new byte[segment.get(offset) & 0xFF];
+        segment.get(offset + MOVES_OFFSET, moves);
+        return new GameRecord(
+                segment.getShort(offset + 2) & 0xFFFF,
+                segment.getShort(offset + 4) & 0xFFFF,
+                segment.getLong(offset + 6),
+                segment.getLong(offset + 14),
+                segment.getInt(offset + 22),
+                segment.getInt(offset + 26),
+                segment.getInt(offset + 30),
+                GameResult.Winner.values()[segment.get(offset + 1)],
+                moves);
+    }
+
+    /**
+     * Finds where the valid records of a segment end, checking only the records
+     * after the last index entry that still points at a valid record.
+     * @return the end, the record count and the index up to the end
+     */
+    static Tail findTail(ByteBuffer segment, int[] index) {
+        int entry = index.length - 1;
+        while (entry >= 0 && !isValid(segment, index[entry]))
+            entry--;
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < entry; i++) offsets.add(index[i]);
+        int records = Math.max(0, entry) * INDEX_INTERVAL;
+        int offset = entry >= 0 ? index[entry] : HEADER_SIZE;
+        while (isValid(segment, offset)) {
+            if (records % INDEX_INTERVAL == 0) offsets.add(offset);
+            offset += recordSize(segment, offset);
+            records++;
+        }
+        return new Tail(offset, records, offsets.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    static class Tail {
+        final int end;
+        final int records;
+        final int[] index;
+
+        Tail(int end, int records, int[] index) {
+            this.end = end;
+            this.records = records;
+            this.index = index;
+        }
+    }
+}
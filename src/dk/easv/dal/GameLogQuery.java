@@ -0,0 +1,335 @@
+package dk.easv.dal;
+
+import dk.easv.bll.game.SearchState;
+import dk.easv.bll.game.stats.GameResult;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Counts games in a game log, grouped by bot pair, opening and result.
+ *
+ * The mapped segments are split into chunks at index entries and scanned
+ * with a parallel stream. The fields of each record are read straight from
+ * the mapped file, and each chunk counts into its own small hash table keyed
+ * by a packed long, so no object is made per game. The chunk tables are
+ * merged at the end.
+ *
+ * Usage: {@code GameLogQuery --log=games --group=pair,opening --plies=1
+ * --bot="Gringo Bot!" --result=player0}; every option but the log is optional.
+ */
+public class GameLogQuery {
+
+    public enum Group {
+        Pair,
+        Opening,
+        Result
+    }
+
+    public static final int MAX_OPENING_PLIES = 4;
+
+    private static final int CHUNK_ENTRIES = 16; // Index entries per chunk, 16K games
+
+    private final GameLogReader reader;
+    private Set<Group> groups = EnumSet.noneOf(Group.class);
+    private int openingPlies = 1;
+    private int bot = -1;
+    private GameResult.Winner result;
+
+    public GameLogQuery(GameLogReader reader) {
+        this.reader = reader;
+    }
+
+    public void setGroups(Set<Group> groups) {
+        this.groups = EnumSet.copyOf(groups);
+    }
+
+    /**
+     * @param openingPlies the number of moves that make up an opening, at most {@link #MAX_OPENING_PLIES}
+     */
+    public void setOpeningPlies(int openingPlies) {
+        if (openingPlies < 1 || openingPlies > MAX_OPENING_PLIES)
+            throw new IllegalArgumentException("Opening plies must be from 1 to " + MAX_OPENING_PLIES);
+        this.openingPlies = openingPlies;
+    }
+
+    /**
+     * @param bot only count games this bot played, with either color, or -1 for all
+     */
+    public void setBot(int bot) {
+        this.bot = bot;
+    }
+
+    /**
+     * @param result only count games with this result, or null for all
+     */
+    public void setResult(GameResult.Winner result) {
+        this.result = result;
+    }
+
+    /**
+     * Scans the log.
+     * @return a row per group, with the most games first
+     */
+    public List<Row> run() {
+        List<int[]> chunks = new ArrayList<>(); // Segment, first index entry
+        for (int s = 0; s < reader.getSegments().size(); s++) {
+            int entries = reader.getSegments().get(s).index.length;
+            for (int e = 0; e < entries; e += CHUNK_ENTRIES)
+                chunks.add(new int[]{s, e});
+        }
+        Counts counts = chunks.parallelStream()
+                .map(this::scan)
+                .reduce(Counts::merge)
+                .orElseGet(Counts::new);
+        List<Row> rows = new ArrayList<>();
+        for (int slot = 0; slot < counts.keys.length; slot++) {
+            if (counts.values[slot] != null) rows.add(new Row(counts.keys[slot], counts.values[slot]));
+        }
+        rows.sort((a, b) -> Long.compare(b.getGames(), a.getGames()));
+        return rows;
+    }
+
+    private Counts scan(int[] chunk) {
+        GameLogReader.Segment segment = reader.getSegments().get(chunk[0]);
+        ByteBuffer data = segment.data;
+        int start = segment.index[chunk[1]];
+        int last = chunk[1] + CHUNK_ENTRIES;
+        int end = last < segment.index.length ? segment.index[last] : data.limit();
+        boolean byPair = groups.contains(Group.Pair);
+        boolean byOpening = groups.contains(Group.Opening);
+        boolean byResult = groups.contains(Group.Result);
+        int onlyResult = result == null ? -1 : result.ordinal();
+
+        Counts counts = new Counts();
+        for (int offset = start; offset < end; ) {
+            int moves = data.get(offset) & 0xFF;
+            int winner = data.get(offset + 1);
+            int bot0 = data.getShort(offset + 2) & 0xFFFF;
+            int bot1 = data.getShort(offset + 4) & 0xFFFF;
+            int next = offset + GameLogFormat.FIXED_SIZE + moves;
+            if ((bot < 0 || bot0 == bot || bot1 == bot) && (onlyResult < 0 || winner == onlyResult)) {
+                // Bits 32-63 the bots, 28-29 the result plus one, 0-27 the opening moves plus one, 7 bits each
+                long key = 0;
+                if (byPair) key |= (long) bot0 << 48 | (long) bot1 << 32;
+                if (byResult) key |= (long) (winner + 1) << 28;
+                if (byOpening) {
+                    for (int ply = 0; ply < openingPlies && ply < moves; ply++)
+                        key |= (long) (data.get(offset + GameLogFormat.MOVES_OFFSET + ply) + 1) << (7 * ply);
+                }
+                counts.add(key, winner, moves);
+            }
+            offset = next;
+        }
+        return counts;
+    }
+
+    /**
+     * The counts of one group.
+     */
+    public class Row {
+        private final long key;
+        private final long[] values;
+
+        Row(long key, long[] values) {
+            this.key = key;
+            this.values = values;
+        }
+
+        /**
+         * @return the bot that moved first, or null if not grouped by pair.
+         */
+        public String getBot0() {
+            return groups.contains(Group.Pair) ? reader.getBotName((int) (key >>> 48)) : null;
+        }
+
+        /**
+         * @return the bot that moved second, or null if not grouped by pair.
+         */
+        public String getBot1() {
+            return groups.contains(Group.Pair) ? reader.getBotName((int) (key >>> 32) & 0xFFFF) : null;
+        }
+
+        /**
+         * @return the result, or null if not grouped by result.
+         */
+        public GameResult.Winner getResult() {
+            return groups.contains(Group.Result) ? GameResult.Winner.values()[(int) (key >>> 28 & 3) - 1] : null;
+        }
+
+        /**
+         * @return the first moves, encoded as in {@link SearchState}, or null if not grouped by opening.
+         */
+        public int[] getOpening() {
+            if (!groups.contains(Group.Opening)) return null;
+            int[] moves = new int[openingPlies];
+            int plies = 0;
+            for (; plies < openingPlies && (key >>> (7 * plies) & 0x7F) != 0; plies++)
+                moves[plies] = (int) (key >>> (7 * plies) & 0x7F) - 1;
+            return Arrays.copyOf(moves, plies);
+        }
+
+        public long getGames() {
+            return values[Counts.GAMES];
+        }
+
+        public long getWins0() {
+            return values[Counts.WINS_0];
+        }
+
+        public long getWins1() {
+            return values[Counts.WINS_1];
+        }
+
+        public long getTies() {
+            return values[Counts.TIES];
+        }
+
+        public double getAverageMoves() {
+            return (double) values[Counts.MOVES] / values[Counts.GAMES];
+        }
+
+        /**
+         * @return the share of the games the first player won.
+         */
+        public double getWinRate0() {
+            return (double) values[Counts.WINS_0] / values[Counts.GAMES];
+        }
+
+        /**
+         * @return the group as text, e.g. "Gringo Bot! vs Random Dude | (4,4) | player0".
+         */
+        public String getLabel() {
+            List<String> parts = new ArrayList<>();
+            if (groups.contains(Group.Pair)) parts.add(getBot0() + " vs " + getBot1());
+            if (groups.contains(Group.Opening)) {
+                StringBuilder opening = new StringBuilder();
+                for (int move : getOpening())
+                    opening.append(SearchState.toIMove(move));
+                parts.add(opening.length() == 0 ? "-" : opening.toString());
+            }
+            if (groups.contains(Group.Result)) parts.add(getResult().name());
+            return parts.isEmpty() ? "all" : String.join(" | ", parts);
+        }
+    }
+
+    /**
+     * Open-addressing hash table from a group key to its counts.
+     */
+    private static class Counts {
+        static final int GAMES = 0;
+        static final int WINS_0 = 1;
+        static final int WINS_1 = 2;
+        static final int TIES = 3;
+        static final int MOVES = 4;
+
+        long[] keys = new long[64];
+        long[][] values = new long[64][];
+        int size;
+
+        void add(long key, int winner, int moves) {
+            long[] v = get(key);
+            v[GAMES]++;
+            v[winner == 0 ? WINS_0 : winner == 1 ? WINS_1 : TIES]++;
+            v[MOVES] += moves;
+        }
+
+        long[] get(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 40) & mask;
+            while (values[slot] != null) {
+                if (keys[slot] == key) return values[slot];
+                slot = (slot + 1) & mask;
+            }
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                return get(key);
+            }
+            keys[slot] = key;
+            size++;
+            return values[slot] = new long[5];
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[][] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2][];
+            size = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldValues[slot] != null) System.arraycopy(oldValues[slot], 0, get(oldKeys[slot]), 0, 5);
+            }
+        }
+
+        Counts merge(Counts other) {
+            Counts into = size >= other.size ? this : other;
+            Counts from = into == this ? other : this;
+            for (int slot = 0; slot < from.keys.length; slot++) {
+                if (from.values[slot] == null) continue;
+                long[] v = into.get(from.keys[slot]);
+                for (int i = 0; i < v.length; i++) v[i] += from.values[slot][i];
+            }
+            return into;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path log = GameLogWriter.DEFAULT_PATH;
+        Set<Group> groups = EnumSet.noneOf(Group.class);
+        int plies = 1;
+        String bot = null;
+        GameResult.Winner result = null;
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            if (option.length != 2) throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            switch (option[0]) {
+                case "log": log = Paths.get(option[1]); break;
+                case "group":
+                    for (String group : option[1].split(",")) {
+                        switch (group) {
+                            case "pair": groups.add(Group.Pair); break;
+                            case "opening": groups.add(Group.Opening); break;
+                            case "result": groups.add(Group.Result); break;
+                            default: throw new IllegalArgumentException("Unknown group " + group);
+                        }
+                    }
+                    break;
+                case "plies": plies = Integer.parseInt(option[1]); break;
+                case "bot": bot = option[1]; break;
+                case "result": result = GameResult.Winner.valueOf(option[1]); break;
+                default: throw new IllegalArgumentException("Unknown option --" + option[0]);
+            }
+        }
+
+        long start = System.nanoTime();
+        GameLogReader reader = GameLogReader.open(log);
+        GameLogQuery query = new GameLogQuery(reader);
+        query.setGroups(groups);
+        query.setOpeningPlies(plies);
+        query.setResult(result);
+        if (bot != null) {
+            int id = reader.getBotNames().indexOf(bot);
+            if (id < 0) throw new IllegalArgumentException("No bot " + bot + " in " + log);
+            query.setBot(id);
+        }
+        List<Row> rows = query.run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        int width = 5;
+        for (Row row : rows) width = Math.max(width, row.getLabel().length());
+        System.out.printf("%-" + width + "s %10s %7s %7s %7s %7s%n", "Group", "Games", "P0 %", "P1 %", "Tie %", "Moves");
+        for (Row row : rows) {
+            System.out.printf("%-" + width + "s %10d %7.1f %7.1f %7.1f %7.1f%n", row.getLabel(), row.getGames(),
+                    100.0 * row.getWins0() / row.getGames(), 100.0 * row.getWins1() / row.getGames(),
+                    100.0 * row.getTies() / row.getGames(), row.getAverageMoves());
+        }
+        System.out.printf("%d games scanned in %.2f s (%.0f games/s)%n", reader.size(), seconds, reader.size() / seconds);
+    }
+}
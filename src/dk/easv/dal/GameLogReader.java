@@ -0,0 +1,125 @@
+package dk.easv.dal;
+
+import dk.easv.bll.game.stats.GameRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reads a game log written by {@link GameLogWriter}, see {@link GameLogFormat}.
+ *
+ * The segments are memory-mapped when the log is opened; games appended
+ * later are not seen. A game is found by its number through the sparse
+ * index, reading at most {@link GameLogFormat#INDEX_INTERVAL} records.
+ *
+ * Thread-safe.
+ */
+public class GameLogReader {
+
+    private final List<String> botNames;
+    private final List<Segment> segments;
+    private final long size;
+
+    private GameLogReader(List<String> botNames, List<Segment> segments) {
+        this.botNames = botNames;
+        this.segments = segments;
+        Segment last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        this.size = last == null ? 0 : last.firstGame + last.records;
+    }
+
+    public static GameLogReader open(Path dir) throws IOException {
+        Path bots = dir.resolve(GameLogFormat.BOTS_FILE);
+        List<String> botNames = Files.exists(bots)
+                ? Files.readAllLines(bots, StandardCharsets.UTF_8) : Collections.emptyList();
+        List<Segment> segments = new ArrayList<>();
+        for (int number : GameLogFormat.findSegments(dir)) {
+            ByteBuffer data = GameLogFormat.map(GameLogFormat.segmentPath(dir, number));
+            if (!GameLogFormat.hasHeader(data)) continue;
+            GameLogFormat.Tail tail = GameLogFormat.findTail(data, GameLogFormat.readIndex(GameLogFormat.indexPath(dir, number)));
+            data.limit(tail.end);
+            segments.add(new Segment(data, GameLogFormat.firstGame(data), tail.records, tail.index));
+        }
+        return new GameLogReader(botNames, segments);
+    }
+
+    /**
+     * @return the number of games in the log.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the name of the bot with the id.
+     */
+    public String getBotName(int id) {
+        return botNames.get(id);
+    }
+
+    public List<String> getBotNames() {
+        return Collections.unmodifiableList(botNames);
+    }
+
+    /**
+     * @return the game with the number, counted from 0.
+     */
+    public GameRecord get(long game) {
+        if (game < 0 || game >= size) throw new IndexOutOfBoundsException("No game " + game + " in a log of " + size);
+        Segment segment = null;
+        for (int low = 0, high = segments.size() - 1; low <= high; ) {
+            int mid = (low + high) >>> 1;
+            Segment candidate = segments.get(mid);
+            if (game < candidate.firstGame) high = mid - 1;
+            else if (game >= candidate.firstGame + candidate.records) low = mid + 1;
+            else {
+                segment = candidate;
+                break;
+            }
+        }
+        if (segment == null) throw new IndexOutOfBoundsException("Game " + game + " is missing from the log");
+        long record = game - segment.firstGame;
+        int offset = segment.index[(int) (record / GameLogFormat.INDEX_INTERVAL)];
+        for (long i = record % GameLogFormat.INDEX_INTERVAL; i > 0; i--)
+            offset += GameLogFormat.recordSize(segment.data, offset);
+        return GameLogFormat.read(segment.data, offset);
+    }
+
+    /**
+     * Reads every game in order.
+     */
+    public void forEach(Consumer<GameRecord> action) {
+        for (Segment segment : segments) {
+            ByteBuffer data = segment.data;
+            for (int offset = GameLogFormat.HEADER_SIZE; offset < data.limit(); offset += GameLogFormat.recordSize(data, offset))
+                action.accept(GameLogFormat.read(data, offset));
+        }
+    }
+
+    List<Segment> getSegments() {
+        return segments;
+    }
+
+    /**
+     * The valid part of a mapped segment.
+     */
+    static class Segment {
+        final ByteBuffer data;
+        final long firstGame;
+        final int records;
+        final int[] index;
+
+        Segment(ByteBuffer data, long firstGame, int records, int[] index) {
+            this.data = data;
+            this.firstGame = firstGame;
+            this.records = records;
+            this.index = index;
+        }
+    }
+}
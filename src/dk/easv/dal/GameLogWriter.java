@@ -0,0 +1,233 @@
+package dk.easv.dal;
+
+import dk.easv.bll.game.stats.GameRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Appends finished games to a game log, see {@link GameLogFormat}.
+ *
+ * Records are collected in a buffer and written with one {@link FileChannel}
+ * call when it is full or on {@link #flush()}, so appending a game is mostly
+ * a memory copy. When the log is opened, the tail of the last segment is
+ * checked and anything after the last whole record, left by a crash, is cut
+ * off, and the index is brought up to date. Only one writer can have a log
+ * open at a time, also across processes.
+ *
+ * Thread-safe.
+ */
+public class GameLogWriter implements AutoCloseable {
+
+    public static final Path DEFAULT_PATH = Paths.get("games");
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int INDEX_BUFFER_SIZE = 4096;
+
+    private final Path dir;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(INDEX_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<String> botNames = new ArrayList<>();
+    private final Map<String, Integer> botIds = new HashMap<>();
+
+    private FileChannel channel;
+    private FileChannel indexChannel;
+    private int segment;
+    private long segmentSize; // Including what is still in the buffer
+    private long segmentRecords;
+    private long games;
+
+    private GameLogWriter(Path dir, FileChannel lockChannel, FileLock lock) {
+        this.dir = dir;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+    }
+
+    /**
+     * Opens the log in the directory for appending, creating it if needed.
+     * @throws IOException also if another writer has the log open
+     */
+    public static GameLogWriter open(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel lockChannel = FileChannel.open(dir.resolve(GameLogFormat.LOCK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            lock = null; // Held by this process
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Game log is open in another writer: " + dir);
+        }
+        GameLogWriter writer = new GameLogWriter(dir, lockChannel, lock);
+        try {
+            writer.recover();
+        } catch (IOException | RuntimeException ex) {
+            writer.releaseLock();
+            throw ex;
+        }
+        return writer;
+    }
+
+    private void releaseLock() throws IOException {
+        if (lockChannel.isOpen()) {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private void recover() throws IOException {
+        Path bots = dir.resolve(GameLogFormat.BOTS_FILE);
+        if (Files.exists(bots)) {
+            for (String name : Files.readAllLines(bots, StandardCharsets.UTF_8)) {
+                botIds.put(name, botNames.size());
+                botNames.add(name);
+            }
+        }
+
+        int[] segments = GameLogFormat.findSegments(dir);
+        for (int i = segments.length - 1; i >= 0; i--) {
+            Path path = GameLogFormat.segmentPath(dir, segments[i]);
+            ByteBuffer data = GameLogFormat.map(path);
+            if (!GameLogFormat.hasHeader(data)) {
+                // Created but never written, or torn; the segment before it is the last one
+                Files.delete(path);
+                Files.deleteIfExists(GameLogFormat.indexPath(dir, segments[i]));
+                continue;
+            }
+            GameLogFormat.Tail tail = GameLogFormat.findTail(data, GameLogFormat.readIndex(GameLogFormat.indexPath(dir, segments[i])));
+            segment = segments[i];
+            segmentSize = tail.end;
+            segmentRecords = tail.records;
+            games = GameLogFormat.firstGame(data) + tail.records;
+            channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            channel.truncate(tail.end);
+            channel.position(tail.end);
+            ByteBuffer index = ByteBuffer.allocate(tail.index.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            index.asIntBuffer().put(tail.index);
+            indexChannel = FileChannel.open(GameLogFormat.indexPath(dir, segment),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            while (index.hasRemaining())
+                indexChannel.write(index);
+            return;
+        }
+        startSegment(segments.length == 0 ? 0 : segments[0]);
+    }
+
+    private void startSegment(int number) throws IOException {
+        segment = number;
+        segmentSize = GameLogFormat.HEADER_SIZE;
+        segmentRecords = 0;
+        channel = FileChannel.open(GameLogFormat.segmentPath(dir, segment),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(GameLogFormat.indexPath(dir, segment),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        GameLogFormat.writeHeader(buffer, games);
+    }
+
+    /**
+     * @return the id of the bot, adding it to the log if it is new.
+     */
+    public synchronized int getBotId(String name) throws IOException {
+        Integer id = botIds.get(name);
+        if (id != null) return id;
+        if (name.contains("\n")) throw new IllegalArgumentException("Bot name with a line break: " + name);
+        if (botNames.size() > 0xFFFF) throw new IOException("Too many bots in " + dir);
+        botNames.add(name);
+        // Written before any record that uses the id
+        Path bots = dir.resolve(GameLogFormat.BOTS_FILE);
+        Path tmp = bots.resolveSibling(GameLogFormat.BOTS_FILE + ".tmp");
+        Files.write(tmp, botNames, StandardCharsets.UTF_8);
+        Files.move(tmp, bots, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        botIds.put(name, botNames.size() - 1);
+        return botNames.size() - 1;
+    }
+
+    /**
+     * Appends a game. It is written to disk when the buffer is full, or on {@link #flush()}.
+     * @return the number of the game in the log
+     */
+    public synchronized long append(GameRecord record) throws IOException {
+        if (channel == null) throw new IOException("Game log is closed: " + dir);
+        int size = GameLogFormat.recordSize(record);
+        if (segmentSize + size > GameLogFormat.SEGMENT_SIZE) {
+            closeSegment();
+            startSegment(segment + 1);
+        }
+        if (buffer.remaining() < size || indexBuffer.remaining() < 4) writeBuffers();
+        if (segmentRecords % GameLogFormat.INDEX_INTERVAL == 0) indexBuffer.putInt((int) segmentSize);
+        GameLogFormat.write(buffer, record);
+        segmentSize += size;
+        segmentRecords++;
+        return games++;
+    }
+
+    /**
+     * @return the number of games in the log, including those not yet written.
+     */
+    public synchronized long size() {
+        return games;
+    }
+
+    /**
+     * Writes the buffered games to the files.
+     */
+    public synchronized void flush() throws IOException {
+        writeBuffers();
+    }
+
+    /**
+     * Writes the buffered games and waits until they are on the disk.
+     */
+    public synchronized void sync() throws IOException {
+        writeBuffers();
+        channel.force(false);
+        indexChannel.force(false);
+    }
+
+    private void writeBuffers() throws IOException {
+        // Records first, so the index never points past them
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+        indexBuffer.flip();
+        while (indexBuffer.hasRemaining())
+            indexChannel.write(indexBuffer);
+        indexBuffer.clear();
+    }
+
+    private void closeSegment() throws IOException {
+        sync();
+        channel.close();
+        indexChannel.close();
+        channel = null;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (channel != null) closeSegment();
+        } finally {
+            releaseLock();
+        }
+    }
+}
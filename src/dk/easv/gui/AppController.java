@@ -3,7 +3,13 @@ package dk.easv.gui;
 import com.jfoenix.controls.*;
 import dk.easv.bll.bot.IBot;
 import dk.easv.bll.game.GameManager;
+import dk.easv.bll.game.IGameState;
+import dk.easv.bll.game.stats.GameRecord;
 import dk.easv.bll.game.stats.GameResult;
+import dk.easv.bll.game.stats.ResultAggregator;
+import dk.easv.bll.tournament.GameScheduler;
+import dk.easv.dal.BotFactory;
+import dk.easv.dal.GameLogWriter;
 import dk.easv.dal.DynamicBotClassHandler;
 import static dk.easv.gui.util.FontAwesomeHelper.getFontAwesomeIconFromPlayerId;
 import static dk.easv.dal.DynamicBotClassHandler.loadBotList;
@@ -21,7 +27,11 @@ import javafx.stage.Stage;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.util.ResourceBundle;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javafx.application.Platform;
@@ -32,6 +42,12 @@ import javafx.scene.layout.AnchorPane;
 
 public class AppController implements Initializable {
 
+    private static final long PROGRESS_MILLIS = 500;
+    // Simulations end dead microboards and drawn games early when started with -Duttt.earlyTermination=true
+    private static final boolean EARLY_TERMINATION = Boolean.getBoolean("uttt.earlyTermination");
+    // Simulated games are kept in a game log only when started with -Duttt.gameLog=<directory>
+    private static final String GAME_LOG = System.getProperty("uttt.gameLog");
+
     public JFXButton btnTrash;
     public JFXButton btnDiamond;
     @FXML
@@ -64,9 +80,6 @@ public class AppController implements Initializable {
     @FXML
     private AnchorPane anchorMain;
     private BooleanProperty simulation= new SimpleBooleanProperty(false);
-    private volatile int winsBot1 = 0;
-    private volatile int winsBot2 = 0;
-    private volatile int ties = 0;
     @FXML
     private JFXToggleButton toggleBtnSim;
     @FXML
@@ -146,18 +159,36 @@ public class AppController implements Initializable {
     }
 
     private void startSimulation(long amountOfSimulations) {
-        int multiCores = Runtime.getRuntime().availableProcessors();
-        winsBot1 = 0;
-        winsBot2 = 0;
-        ties = 0;
-        for (int i = 0; i < multiCores; i++) {
-            Thread t = new Thread(
-                    new Simulator(amountOfSimulations/multiCores, 
-                        this.comboBotsLeft.getValue().getClass(), 
-                        this.comboBotsRight.getValue().getClass()));
-            t.setDaemon(true);
-            t.start();
-        }
+        // Bot 1 is number 0 and bot 2 number 1 in the results
+        ResultAggregator results = new ResultAggregator(2, amountOfSimulations);
+        Class<? extends IBot> b1 = comboBotsLeft.getValue().getClass();
+        Class<? extends IBot> b2 = comboBotsRight.getValue().getClass();
+        String name1 = comboBotsLeft.getValue().getBotName();
+        String name2 = comboBotsRight.getValue().getBotName();
+        Thread t = new Thread(() -> {
+            GameScheduler scheduler = new GameScheduler(Runtime.getRuntime().availableProcessors());
+            ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "simulation-progress");
+                thread.setDaemon(true);
+                return thread;
+            });
+            progress.scheduleAtFixedRate(() -> setSimulationResults(getSimulationResults(name1, name2, results)),
+                    PROGRESS_MILLIS, PROGRESS_MILLIS, TimeUnit.MILLISECONDS);
+            GameLogWriter log = openGameLog();
+            try {
+                scheduler.run(amountOfSimulations, game -> simulateGame(game, b1, b2, results, log));
+            } catch (RuntimeException ex) {
+                Logger.getLogger(AppController.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                scheduler.shutdown();
+                closeGameLog(log);
+            }
+            // Posted from the progress thread, so it cannot be overtaken by a progress update
+            progress.execute(() -> setSimulationResults(getSimulationResults(name1, name2, results)));
+            progress.shutdown();
+        }, "simulation");
+        t.setDaemon(true);
+        t.start();
     }
 
     @FXML
@@ -174,122 +205,93 @@ public class AppController implements Initializable {
         }
     }
     
-    private class Simulator implements Runnable{
-        private final long amountOfSimulations;
-        private IBot bot1;
-        private IBot bot2;
-        public Simulator(
-                long amountOfSimulations, 
-                Class<? extends IBot> b1, 
-                Class<? extends IBot> b2) {
-
-            this.amountOfSimulations=amountOfSimulations;
-            try {
-                this.bot1 = b1.newInstance();
-                this.bot2 = b2.newInstance();
-            }
-            catch (InstantiationException ex) {
-                Logger.getLogger(AppController.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            catch (IllegalAccessException ex) {
-                Logger.getLogger(AppController.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Plays one game of a simulation. Bot 1 goes first in the even games, so the
+     * colors are shared the same way however many threads there are.
+     */
+    private void simulateGame(long game, Class<? extends IBot> b1, Class<? extends IBot> b2,
+            ResultAggregator results, GameLogWriter log) {
+        boolean swap = (game & 1) == 1;
+        IBot bot1 = BotFactory.create(b1);
+        IBot bot2 = BotFactory.create(b2);
+        IBot player0 = swap ? bot2 : bot1;
+        IBot player1 = swap ? bot1 : bot2;
+        BoardModel model = new BoardModel(player0, player1);
+        model.setEarlyTermination(EARLY_TERMINATION);
+        int moves = 0;
+        while (model.getGameOverState() == GameManager.GameOverState.Active
+                 && model.getGameState().getField().getAvailableMoves().size()>0) {
+            Boolean valid = model.doMove();
+            if (!valid) {
+                throw new RuntimeException("Bot not following rules!");
             }
+            moves++;
         }
-        
-        @Override
-        public void run() {
-            for (int i = 0; i < amountOfSimulations/2; i++) {
-                BoardModel model = new BoardModel(bot1, bot2);
-                int currentPlayer = 0;
-                while (model.getGameOverState() == GameManager.GameOverState.Active
-                         && model.getGameState().getField().getAvailableMoves().size()>0) {
-                    currentPlayer = model.getCurrentPlayer();
-                    Boolean valid = model.doMove();
-                    if (!valid) {
-                        throw new RuntimeException("Bot not following rules!");
-                    }
-                }
-                // There is a tie
-                if (model.getGameOverState().equals(GameManager.GameOverState.Tie)) {
-                    this.addGameResult(
-                            new GameResult(
-                                    bot1.getBotName(), 
-                                    bot2.getBotName(), 
-                                    GameResult.Winner.tie));
-                    ties++;
-                }
-                else { // There is a winner
-                    GameResult.Winner winResult=null;
-                    if(currentPlayer==0) {
-                        winsBot1++;
-                        winResult = GameResult.Winner.player0;
-                    }
-                    else if(currentPlayer==1){
-                        winsBot2++;
-                        winResult = GameResult.Winner.player1;
-                    }
-                        
-                    this.addGameResult(
-                            new GameResult(
-                                    bot1.getBotName(), 
-                                    bot2.getBotName(), 
-                                    winResult));
-                }
-                
-            }
-            for (int i = 0; i < amountOfSimulations/2; i++) {
-                BoardModel model = new BoardModel(bot2, bot1);
-                int currentPlayer = 0;
-                while (model.getGameOverState() == GameManager.GameOverState.Active
-                         && model.getGameState().getField().getAvailableMoves().size()>0) {
-                    currentPlayer = model.getCurrentPlayer();
-                    Boolean valid = model.doMove();
-                    if (!valid) {
-                        throw new RuntimeException("Bot not following rules!");
-                    }
-                }
-                // There is a tie
-                if (model.getGameOverState().equals(GameManager.GameOverState.Tie)) {
-                    this.addGameResult(
-                            new GameResult(
-                                    bot2.getBotName(), 
-                                    bot1.getBotName(), 
-                                    GameResult.Winner.tie));
-                    ties++;
-                }
-                else { // There is a winner
-                    GameResult.Winner winResult=null;
-                    if(currentPlayer==0) {
-                        winsBot2++;
-                        winResult = GameResult.Winner.player0;
-                    }
-                    else if(currentPlayer==1){
-                        winsBot1++;
-                        winResult = GameResult.Winner.player1;
-                    }
-                        
-                    this.addGameResult(
-                            new GameResult(
-                                    bot2.getBotName(), 
-                                    bot1.getBotName(), 
-                                    winResult));
-                }
-                
+        int first = swap ? 1 : 0;
+        GameResult.Winner winner;
+        // There is a tie
+        if (model.getGameOverState().equals(GameManager.GameOverState.Tie)) {
+            winner = GameResult.Winner.tie;
+            results.record(first, 1 - first, -1, moves);
+        }
+        else { // There is a winner, who need not have made the last move when the clock decides
+            winner = model.getWinner() == 0 ? GameResult.Winner.player0 : GameResult.Winner.player1;
+            results.record(first, 1 - first, model.getWinner(), moves);
+        }
+        addGameResult(new GameResult(player0.getBotName(), player1.getBotName(), winner));
+        if (log != null) {
+            try {
+                IGameState state = model.getGameState();
+                log.append(new GameRecord(log.getBotId(player0.getBotName()), log.getBotId(player1.getBotName()),
+                        game, System.currentTimeMillis(), state.getTimePerMove(), (int) IGameState.NO_CLOCK, 0,
+                        winner, GameRecord.encodeMoves(model.getMoveHistory())));
+            } catch (IOException ex) {
+                Logger.getLogger(AppController.class.getName()).log(Level.WARNING, null, ex);
             }
-            setSimulationResults(bot1.getBotName() + " vs " +
-                        bot2.getBotName() + " | " +
-                        "w/w/t " + winsBot1 + "/" +
-                        winsBot2 + "/" + ties);
         }
-        private void setSimulationResults(String result) {
-            Platform.runLater(()-> 
-                statsModel.setLastSimulationResults(result));
+    }
+
+    /**
+     * @return the game log simulated games are kept in, or null if there is none or it cannot be opened.
+     */
+    private static GameLogWriter openGameLog() {
+        if (GAME_LOG == null) return null;
+        try {
+            return GameLogWriter.open(Paths.get(GAME_LOG));
+        } catch (IOException ex) {
+            Logger.getLogger(AppController.class.getName()).log(Level.WARNING, null, ex);
+            return null;
         }
-        private void addGameResult(GameResult gameResult) {
-            Platform.runLater(()->
-                statsModel.addGameResult(gameResult));
+    }
+
+    private static void closeGameLog(GameLogWriter log) {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException ex) {
+            Logger.getLogger(AppController.class.getName()).log(Level.WARNING, null, ex);
         }
     }
+
+    /**
+     * @return the wins of each bot and the ties so far, with the speed and time left.
+     */
+    private static String getSimulationResults(String name1, String name2, ResultAggregator results) {
+        long[] bot1 = results.getResult(0, 1);
+        return name1 + " vs " + name2 + " | " +
+                "w/w/t " + bot1[0] + "/" + bot1[2] + "/" + bot1[1] + " | " +
+                results.getProgress();
+    }
+
+    private void setSimulationResults(String result) {
+        Platform.runLater(()-> 
+            statsModel.setLastSimulationResults(result));
+    }
+
+    private void addGameResult(GameResult gameResult) {
+        statsModel.publish(gameResult);
+    }
+
     private class CustomIBotListCell extends ListCell<IBot> {
 
         @Override
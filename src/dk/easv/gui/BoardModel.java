@@ -24,10 +24,28 @@ public class BoardModel implements Observable{
     public BoardModel(IBot bot, boolean humanPlaysFirst) {
         game = new GameManager(new GameState(), bot, humanPlaysFirst);
         game.getCurrentState().setTimePerMove(TIME_PER_MOVE);
+        game.setPondering(true); // Let the bot think while the human does
     }
     public BoardModel(IBot bot1, IBot bot2) {
         game = new GameManager(new GameState(), bot1, bot2);
         game.getCurrentState().setTimePerMove(TIME_PER_MOVE);
+        game.setMoveTimer(MoveTimer.getShared()); // A hanging bot must not stall the simulation
+    }
+
+    /**
+     * Plays by the early termination rules, see {@link GameManager#setEarlyTermination(boolean)}.
+     */
+    public void setEarlyTermination(boolean earlyTermination) {
+        game.setEarlyTermination(earlyTermination);
+    }
+
+    /**
+     * Plays with a chess clock instead of a fixed time per move.
+     * @param timeBank each player's starting time in milliseconds
+     * @param increment the time added after each move in milliseconds
+     */
+    public void setClock(long timeBank, int increment) {
+        game.setClock(timeBank, increment);
     }
 
     private void notifyAllListeners(){
@@ -55,6 +73,7 @@ public class BoardModel implements Observable{
         isForced=true;
         game.setCurrentPlayer(winner);
         game.setGameOver(GameManager.GameOverState.Win);
+        game.stopPondering();
    }
 
     public boolean doMove() {
@@ -88,6 +107,17 @@ public class BoardModel implements Observable{
         return game.getGameOver();
     }
 
+    /**
+     * @return the player who won, also on time, or -1 while the game is going on or tied.
+     */
+    public int getWinner() {
+        return game.getWinner();
+    }
+
+    public List<IMove> getMoveHistory() {
+        return game.getMoveHistory();
+    }
+
     public boolean getIsForced() {
         return isForced;
     }
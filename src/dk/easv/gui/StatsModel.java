@@ -6,23 +6,53 @@
 package dk.easv.gui;
 
 import dk.easv.bll.game.stats.GameResult;
-import javafx.beans.Observable;
+import dk.easv.bll.game.stats.PairSummary;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
 /**
+ * Keeps the most recent {@link #RECENT_GAMES} game results for the list view,
+ * and a summary per pair of players of every game since the last clear, so
+ * memory stays flat however many games are played.
+ *
+ * Simulation threads hand their results to {@link #publish}, which queues them
+ * and applies them in one batch per frame on the JavaFX thread.
  *
  * @author jeppjleemoritzled
  */
 public class StatsModel {
+    public static final int RECENT_GAMES = 1000;
+
     private final ObservableList<GameResult> gameResults = 
             FXCollections.observableArrayList();
     
     private final StringProperty lastSimulationResults = 
             new SimpleStringProperty("");
 
+    private final Map<String, PairSummary> summaries = new LinkedHashMap<>();
+
+    private final ConcurrentLinkedQueue<GameResult> pending =
+            new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean publishing = new AtomicBoolean();
+    private final AnimationTimer publisher = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            flush();
+        }
+    };
+
     public StringProperty lastSimulationResultsProperty() {
         return lastSimulationResults;
     }
@@ -39,12 +69,60 @@ public class StatsModel {
         return gameResults;
     }
     
+    /**
+     * @return the summaries per pair and color, in the order the pairs first played.
+     */
+    public Collection<PairSummary> getSummaries() {
+        return Collections.unmodifiableCollection(summaries.values());
+    }
+
+    /**
+     * Adds a result right away. Must be called on the JavaFX thread.
+     */
     public synchronized void addGameResult(GameResult gr) {
-        gameResults.add(gr);
+        addGameResults(Collections.singletonList(gr));
+    }
+
+    /**
+     * Queues a result for the next frame. Can be called from any thread.
+     */
+    public void publish(GameResult gr) {
+        pending.add(gr);
+        if (publishing.compareAndSet(false, true))
+            Platform.runLater(publisher::start);
+    }
+
+    private void flush() {
+        List<GameResult> batch = new ArrayList<>();
+        for (GameResult gr = pending.poll(); gr != null; gr = pending.poll())
+            batch.add(gr);
+        if (!batch.isEmpty())
+            addGameResults(batch);
+        else {
+            // Idle until the next result; a result published meanwhile restarts the timer
+            publisher.stop();
+            publishing.set(false);
+            if (!pending.isEmpty() && publishing.compareAndSet(false, true))
+                publisher.start();
+        }
+    }
+
+    private synchronized void addGameResults(List<GameResult> batch) {
+        for (GameResult gr : batch)
+            summaries.computeIfAbsent(gr.getPlayer0() + "\n" + gr.getPlayer1(),
+                    k -> new PairSummary(gr.getPlayer0(), gr.getPlayer1()))
+                    .add(gr.getWinner());
+        // Only the last results of the batch can stay in the list
+        List<GameResult> recent = batch.subList(Math.max(0, batch.size() - RECENT_GAMES), batch.size());
+        int overflow = gameResults.size() + recent.size() - RECENT_GAMES;
+        if (overflow > 0)
+            gameResults.remove(0, overflow);
+        gameResults.addAll(recent);
     }
 
-    public void clear() {
+    public synchronized void clear() {
         gameResults.clear();
+        summaries.clear();
     }
     
     